@@ -22,14 +22,23 @@ public final class Comment {
   private final String email;
   private final String text;
   private final String image;
+  // Resized copies of the image; null for comments posted before they were made.
+  private final String thumbnail;
+  private final String medium;
   private final long timestamp;
+  // False when the text couldn't be translated in time and is the original.
+  private final boolean translated;
 
-  public Comment(long id, String username, String email, String text, String image, long timestamp) {
+  public Comment(long id, String username, String email, String text, String image,
+      String thumbnail, String medium, long timestamp, boolean translated) {
     this.id = id;
     this.username = username;
     this.email = email;
     this.text = text;
     this.image = image;
+    this.thumbnail = thumbnail;
+    this.medium = medium;
     this.timestamp = timestamp;
+    this.translated = translated;
   }
 }
\ No newline at end of file
@@ -0,0 +1,189 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+
+/**
+ * Deletes comments in bulk. Comments are found with a keys-only query, and deleted in batches of
+ * up to 500 keys (the most one Datastore call accepts) with several batches in flight at once.
+ * Once the comments are gone, their search index entries are deleted the same way, except for
+ * entries of comments that still exist, such as ones posted while the job was running.
+ */
+public final class CommentDeleter {
+
+  public static final int BATCH_SIZE = 500;
+  private static final int MAX_BATCHES_IN_FLIGHT = 8;
+  // One get takes at most 1000 keys.
+  private static final int MAX_GET_SIZE = 1000;
+
+  /** Keys fetched and deleted per round. */
+  public static final int ROUND_SIZE = BATCH_SIZE * MAX_BATCHES_IN_FLIGHT;
+
+  // Kinds deleted, in order. Comments go first so they disappear from the page right away.
+  private static final List<String> KINDS = Arrays.asList("Comment", CommentIndex.KIND);
+
+  private final AsyncDatastoreService datastore =
+      DatastoreServiceFactory.getAsyncDatastoreService();
+  private String kind;
+  private Cursor cursor;
+  private boolean done;
+
+  /**
+   * Starts deleting comments
+   * @param kind kind a previous deleter left off at, or null to start from the beginning
+   * @param cursor where a previous deleter left off in that kind, or null to start at its first
+   * @throws IllegalArgumentException if kind isn't one the deleter deletes
+   */
+  public CommentDeleter(String kind, Cursor cursor) {
+    if (kind != null && !KINDS.contains(kind)) {
+      throw new IllegalArgumentException("Unknown kind " + kind);
+    }
+    this.kind = kind == null ? KINDS.get(0) : kind;
+    this.cursor = cursor;
+  }
+
+  /**
+   * Deletes up to ROUND_SIZE more comments or index entries
+   * @return the number of comments deleted
+   */
+  public int deleteRound() {
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(ROUND_SIZE);
+    if (cursor != null) {
+      fetchOptions.startCursor(cursor);
+    }
+    Query query = new Query(kind).setKeysOnly();
+    QueryResultList<Entity> results;
+    try {
+      results = datastore.prepare(query).asQueryResultList(fetchOptions);
+    } catch (IllegalArgumentException e) {
+      throw new DatastoreFailureException("Invalid cursor", e);
+    }
+
+    List<Key> keys = new ArrayList<>();
+    for (Entity entity : results) {
+      keys.add(entity.getKey());
+    }
+    boolean comments = kind.equals(KINDS.get(0));
+    int found = keys.size();
+    if (!comments) {
+      keys = withoutLiveComments(keys);
+    }
+
+    // Send every batch before waiting on any of them.
+    List<Future<Void>> deletes = new ArrayList<>();
+    for (int start = 0; start < keys.size(); start += BATCH_SIZE) {
+      deletes.add(datastore.delete(keys.subList(start, Math.min(start + BATCH_SIZE, keys.size()))));
+    }
+    for (Future<Void> delete : deletes) {
+      await(delete);
+    }
+
+    if (comments && !keys.isEmpty()) {
+      CommentsResponseCache.invalidate();
+    }
+
+    if (found == ROUND_SIZE) {
+      cursor = results.getCursor();
+    } else if (KINDS.indexOf(kind) + 1 < KINDS.size()) {
+      kind = KINDS.get(KINDS.indexOf(kind) + 1);
+      cursor = null;
+    } else {
+      done = true;
+    }
+    return comments ? keys.size() : 0;
+  }
+
+  /**
+   * Leaves out the index entries of comments that still exist, so comments posted while the job
+   * was running stay searchable
+   * @param tokenKeys keys of index entries
+   * @return the keys of entries whose comment is gone
+   */
+  private List<Key> withoutLiveComments(List<Key> tokenKeys) {
+    Set<Key> commentKeys = new LinkedHashSet<>();
+    for (Key tokenKey : tokenKeys) {
+      commentKeys.add(tokenKey.getParent());
+    }
+    List<Key> parents = new ArrayList<>(commentKeys);
+    List<Future<Map<Key, Entity>>> gets = new ArrayList<>();
+    for (int start = 0; start < parents.size(); start += MAX_GET_SIZE) {
+      int end = Math.min(start + MAX_GET_SIZE, parents.size());
+      gets.add(datastore.get(parents.subList(start, end)));
+    }
+    Set<Key> live = new HashSet<>();
+    for (Future<Map<Key, Entity>> get : gets) {
+      live.addAll(await(get).keySet());
+    }
+
+    List<Key> orphans = new ArrayList<>();
+    for (Key tokenKey : tokenKeys) {
+      if (!live.contains(tokenKey.getParent())) {
+        orphans.add(tokenKey);
+      }
+    }
+    return orphans;
+  }
+
+  private static <T> T await(Future<T> future) {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw new DatastoreFailureException("Deleting comments failed", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DatastoreFailureException("Interrupted while deleting comments", e);
+    }
+  }
+
+  /**
+   * @return true once a round found fewer index entries than it could have deleted
+   */
+  public boolean isDone() {
+    return done;
+  }
+
+  /**
+   * @return which kind the next round deletes
+   */
+  public String getKind() {
+    return kind;
+  }
+
+  /**
+   * @return where the next round starts within its kind, or null to start at the first
+   */
+  public Cursor getCursor() {
+    return cursor;
+  }
+}
@@ -0,0 +1,108 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.api.images.ImagesServiceFailureException;
+import com.google.appengine.api.images.ServingUrlOptions;
+
+/**
+ * Resized copies of comment images. Uploads get an Images service serving URL once, in the
+ * background task that runs after the comment is posted, and it is stored in the "image_serving"
+ * property. Uploads the Images service can't resize store an empty string there instead, so they
+ * aren't looked up again. Until then, and for those, lists show the original upload. Appending a size to it
+ * returns the image scaled down by Google's image servers, which cache it, so list views never
+ * download the full-size upload.
+ */
+public final class CommentImages {
+
+  /** Comment property holding the serving URL. */
+  public static final String SERVING_PROPERTY = "image_serving";
+
+  /** Stored in place of the serving URL for uploads that don't have one. */
+  public static final String NO_SERVING_URL = "";
+
+  private static final String IMAGE_URL_PREFIX = "/serve?blob-key=";
+
+  /** Longest side in pixels of the copy shown in the comment list. */
+  public static final int THUMBNAIL_SIZE = 200;
+  /** Longest side in pixels of the copy opened from the list. */
+  public static final int MEDIUM_SIZE = 800;
+
+  private CommentImages() {}
+
+  /**
+   * @param blobKey key of the uploaded image
+   * @return the URL the original upload is served from
+   */
+  public static String getImageUrl(BlobKey blobKey) {
+    return IMAGE_URL_PREFIX + blobKey.getKeyString();
+  }
+
+  /**
+   * @param imageUrl URL stored in a comment's "image" property
+   * @return the key of the upload it serves, or null if it isn't one of our uploads
+   */
+  public static BlobKey getBlobKey(String imageUrl) {
+    if (imageUrl == null || !imageUrl.startsWith(IMAGE_URL_PREFIX)) {
+      return null;
+    }
+    return new BlobKey(imageUrl.substring(IMAGE_URL_PREFIX.length()));
+  }
+
+  /**
+   * @return true if the comment has an upload whose serving URL hasn't been looked up yet
+   */
+  public static boolean needsServingUrl(Entity commentEntity) {
+    return getBlobKey((String) commentEntity.getProperty("image")) != null
+        && !commentEntity.hasProperty(SERVING_PROPERTY);
+  }
+
+  /**
+   * Gets the base URL the resized copies are served from. This calls the Images service, so
+   * keep it off request paths.
+   * @return serving URL, or null if the upload isn't an image the Images service can resize
+   * @throws ImagesServiceFailureException if the Images service failed; try again later
+   */
+  public static String getServingUrl(BlobKey blobKey) {
+    try {
+      return ImagesServiceFactory.getImagesService().getServingUrl(
+          ServingUrlOptions.Builder.withBlobKey(blobKey).secureUrl(true));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Stores the serving URL on the comment. It is only ever read back, so it isn't indexed.
+   * @param servingUrl URL from getServingUrl, or NO_SERVING_URL if it returned null
+   */
+  public static void setServingUrl(Entity commentEntity, String servingUrl) {
+    commentEntity.setUnindexedProperty(SERVING_PROPERTY, servingUrl);
+  }
+
+  /**
+   * @param servingUrl stored serving URL, NO_SERVING_URL, or null
+   * @return URL of the copy scaled to fit size pixels, or null if there is no serving URL
+   */
+  public static String resized(String servingUrl, int size) {
+    if (servingUrl == null || servingUrl.equals(NO_SERVING_URL)) {
+      return null;
+    }
+    return servingUrl + "=s" + size;
+  }
+}
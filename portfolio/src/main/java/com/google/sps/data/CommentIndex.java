@@ -0,0 +1,313 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+
+/**
+ * Inverted index over comment text. Every distinct word of a comment is stored as a
+ * "CommentToken" child entity of the comment, keyed by the word, with how often the word occurs
+ * and the comment's timestamp. Searches read the tokens of the query's words newest first, one
+ * page at a time, and only load the comments on the requested page. Comments written before the
+ * index existed, or before tokens carried an indexed timestamp, are indexed by the
+ * /admin/reindex-comments job.
+ */
+public final class CommentIndex {
+
+  public static final String KIND = "CommentToken";
+
+  // Longer words are cut to this many characters, both when indexing and when searching.
+  private static final int MAX_TOKEN_LENGTH = 64;
+  // One put takes at most 500 entities.
+  private static final int MAX_TOKENS_PER_COMMENT = 500;
+  private static final int MAX_QUERY_TOKENS = 8;
+
+  private CommentIndex() {}
+
+  /**
+   * Splits text into lower-case words of letters and digits
+   * @return the words in order, including repeats
+   */
+  public static List<String> tokenize(String text) {
+    List<String> tokens = new ArrayList<>();
+    if (text == null) {
+      return tokens;
+    }
+    for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+      if (word.isEmpty()) {
+        continue;
+      }
+      tokens.add(word.length() > MAX_TOKEN_LENGTH ? word.substring(0, MAX_TOKEN_LENGTH) : word);
+    }
+    return tokens;
+  }
+
+  /**
+   * Builds the index entries for a stored comment. Entries are keyed by word under the comment,
+   * so indexing the same comment again overwrites them.
+   * @param commentEntity comment with a complete key
+   * @return token entities to put
+   */
+  public static List<Entity> tokensFor(Entity commentEntity) {
+    Map<String, Long> counts = new LinkedHashMap<>();
+    for (String token : tokenize(CommentTranslations.getText(commentEntity, "text"))) {
+      Long count = counts.get(token);
+      if (count == null && counts.size() == MAX_TOKENS_PER_COMMENT) {
+        continue;
+      }
+      counts.put(token, count == null ? 1 : count + 1);
+    }
+
+    List<Entity> tokens = new ArrayList<>();
+    for (Map.Entry<String, Long> entry : counts.entrySet()) {
+      Entity token = new Entity(KIND, entry.getKey(), commentEntity.getKey());
+      token.setProperty("token", entry.getKey());
+      token.setUnindexedProperty("count", entry.getValue());
+      // Copied and indexed so postings can be read newest first without loading the comment.
+      token.setProperty("timestamp", commentEntity.getProperty("timestamp"));
+      tokens.add(token);
+    }
+    return tokens;
+  }
+
+  /**
+   * @return keys of every index entry of a comment
+   */
+  public static List<Key> getTokenKeys(DatastoreService datastore, Key commentKey) {
+    Query query = new Query(KIND).setAncestor(commentKey).setKeysOnly();
+    List<Key> keys = new ArrayList<>();
+    for (Entity token : datastore.prepare(query).asIterable()) {
+      keys.add(token.getKey());
+    }
+    return keys;
+  }
+
+  /**
+   * Finds the comments matching any word of the query, newest first.
+   *
+   * <p>Each word's postings are read in index order, newest comment first, as projections that
+   * carry only the key and timestamp. The words' postings are merged until the page is full plus
+   * one more comment, so a page reads about as many postings per word as it shows, and only the
+   * comments on the page are loaded. The cursor names the last comment shown, and the next page's
+   * reads start from it, so a comment written between pages never shifts the results.
+   * @param cursor where the previous page ended, or null for the first page
+   * @return one page of comments
+   * @throws IllegalArgumentException if the cursor isn't one returned by an earlier page
+   */
+  public static Page search(String queryText, String cursor, int limit) {
+    Posting after = parseCursor(cursor);
+    Set<String> words = new LinkedHashSet<>(tokenize(queryText));
+    if (words.isEmpty()) {
+      return new Page(Collections.emptyList(), null);
+    }
+
+    // Start reading every word's postings before waiting on any of them.
+    AsyncDatastoreService datastore = DatastoreServiceFactory.getAsyncDatastoreService();
+    FetchOptions fetchOptions = FetchOptions.Builder.withChunkSize(limit + 1);
+    List<PeekingPostings> postings = new ArrayList<>();
+    for (String word : words) {
+      if (postings.size() == MAX_QUERY_TOKENS) {
+        break;
+      }
+      Query query = postingsQuery(word, after);
+      postings.add(new PeekingPostings(datastore.prepare(query).asIterator(fetchOptions), after));
+    }
+
+    // Merge the words' postings, newest first. A comment matching several words is at the head
+    // of each of their postings at the same time, so it is only taken once.
+    List<Posting> matches = new ArrayList<>();
+    while (matches.size() <= limit) {
+      Posting newest = null;
+      for (PeekingPostings word : postings) {
+        Posting head = word.peek();
+        if (head != null && (newest == null || NEWEST_FIRST.compare(head, newest) < 0)) {
+          newest = head;
+        }
+      }
+      if (newest == null) {
+        break;
+      }
+      for (PeekingPostings word : postings) {
+        Posting head = word.peek();
+        if (head != null && head.commentKey.equals(newest.commentKey)) {
+          word.next();
+        }
+      }
+      matches.add(newest);
+    }
+
+    boolean more = matches.size() > limit;
+    List<Posting> page = more ? matches.subList(0, limit) : matches;
+    List<Key> keys = new ArrayList<>();
+    for (Posting match : page) {
+      keys.add(match.commentKey);
+    }
+
+    // Entries can outlive their comment for a moment while it's being deleted; skip those.
+    Map<Key, Entity> found = DatastoreServiceFactory.getDatastoreService().get(keys);
+    List<Entity> comments = new ArrayList<>();
+    for (Key key : keys) {
+      Entity comment = found.get(key);
+      if (comment != null) {
+        comments.add(comment);
+      }
+    }
+    return new Page(comments, more ? toCursor(page.get(page.size() - 1)) : null);
+  }
+
+  /**
+   * @param after the last comment of the previous page, or null for the first page
+   * @return query for one word's postings, newest first, from the cursor on
+   */
+  private static Query postingsQuery(String word, Posting after) {
+    Filter filter = new FilterPredicate("token", FilterOperator.EQUAL, word);
+    if (after != null) {
+      filter = CompositeFilterOperator.and(filter,
+          new FilterPredicate("timestamp", FilterOperator.LESS_THAN_OR_EQUAL, after.timestamp));
+    }
+    // Entries of one word differ only in their parent comment, so the key breaks timestamp ties
+    // in comment key order.
+    return new Query(KIND)
+        .setFilter(filter)
+        .addSort("timestamp", SortDirection.DESCENDING)
+        .addSort(Entity.KEY_RESERVED_PROPERTY, SortDirection.DESCENDING)
+        .addProjection(new PropertyProjection("timestamp", Long.class));
+  }
+
+  /**
+   * @return "timestamp:key" of the last comment on a page
+   */
+  private static String toCursor(Posting posting) {
+    return posting.timestamp + ":" + KeyFactory.keyToString(posting.commentKey);
+  }
+
+  /**
+   * @return the last comment of the previous page, or null for the first page
+   */
+  private static Posting parseCursor(String cursor) {
+    if (cursor == null || cursor.isEmpty()) {
+      return null;
+    }
+    String[] parts = cursor.split(":", 2);
+    if (parts.length != 2) {
+      throw new IllegalArgumentException("Invalid cursor");
+    }
+    // NumberFormatException and bad key strings are IllegalArgumentExceptions too.
+    return new Posting(KeyFactory.stringToKey(parts[1]), Long.parseLong(parts[0]));
+  }
+
+  /** Orders postings the way search results are listed: newest first, then by comment key. */
+  private static final Comparator<Posting> NEWEST_FIRST = new Comparator<Posting>() {
+    @Override
+    public int compare(Posting a, Posting b) {
+      if (a.timestamp != b.timestamp) {
+        return Long.compare(b.timestamp, a.timestamp);
+      }
+      return b.commentKey.compareTo(a.commentKey);
+    }
+  };
+
+  /** A comment a word points to */
+  private static final class Posting {
+    final Key commentKey;
+    final long timestamp;
+
+    Posting(Key commentKey, long timestamp) {
+      this.commentKey = commentKey;
+      this.timestamp = timestamp;
+    }
+  }
+
+  /** One word's postings, skipping those at or before the cursor */
+  private static final class PeekingPostings {
+    private final Iterator<Entity> tokens;
+    private final Posting after;
+    private Posting head;
+
+    PeekingPostings(Iterator<Entity> tokens, Posting after) {
+      this.tokens = tokens;
+      this.after = after;
+    }
+
+    /**
+     * @return the next posting without taking it, or null if there are none left
+     */
+    Posting peek() {
+      while (head == null && tokens.hasNext()) {
+        Entity token = tokens.next();
+        Posting posting =
+            new Posting(token.getParent(), (Long) token.getProperty("timestamp"));
+        // The query starts at the cursor's timestamp; drop what the previous page showed.
+        if (after == null || NEWEST_FIRST.compare(posting, after) > 0) {
+          head = posting;
+        }
+      }
+      return head;
+    }
+
+    void next() {
+      head = null;
+    }
+  }
+
+  /** One page of search results */
+  public static final class Page {
+    private final List<Entity> comments;
+    private final String cursor;
+
+    Page(List<Entity> comments, String cursor) {
+      this.comments = comments;
+      this.cursor = cursor;
+    }
+
+    /**
+     * @return the matching comments, best first
+     */
+    public List<Entity> getComments() {
+      return comments;
+    }
+
+    /**
+     * @return where the next page starts, or null if this is the last page
+     */
+    public String getCursor() {
+      return cursor;
+    }
+  }
+}
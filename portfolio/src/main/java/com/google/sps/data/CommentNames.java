@@ -0,0 +1,81 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+
+/**
+ * Name prefixes stored on Comment entities for the name filter. Every lower-case prefix of the
+ * commenter's name, up to MAX_PREFIX_LENGTH characters, is stored in the "username_prefixes"
+ * list property. Filtering on a prefix is then an equality filter, which Datastore can combine
+ * with sorting by timestamp through a composite index; a range filter on the name would have to
+ * sort by name first. Comments written before the property existed get it from the
+ * /admin/reindex-comments job.
+ */
+public final class CommentNames {
+
+  public static final String PREFIXES_PROPERTY = "username_prefixes";
+
+  // Longer search prefixes match on their first this many characters.
+  private static final int MAX_PREFIX_LENGTH = 20;
+
+  private CommentNames() {}
+
+  /**
+   * Stores the commenter's name and its prefixes on a comment
+   * @param username name as entered, or null
+   */
+  public static void setUsername(Entity commentEntity, String username) {
+    commentEntity.setProperty("username", username);
+    if (username == null || username.isEmpty()) {
+      commentEntity.removeProperty(PREFIXES_PROPERTY);
+      return;
+    }
+    String lower = username.toLowerCase(Locale.ROOT);
+    List<String> prefixes = new ArrayList<>();
+    for (int length = 1; length <= Math.min(lower.length(), MAX_PREFIX_LENGTH); length++) {
+      prefixes.add(lower.substring(0, length));
+    }
+    commentEntity.setProperty(PREFIXES_PROPERTY, prefixes);
+  }
+
+  /**
+   * @return true if the comment has a name but its prefixes haven't been stored yet
+   */
+  public static boolean needsPrefixes(Entity commentEntity) {
+    Object username = commentEntity.getProperty("username");
+    return username instanceof String && !((String) username).isEmpty()
+        && !commentEntity.hasProperty(PREFIXES_PROPERTY);
+  }
+
+  /**
+   * @param prefix start of the names to find, in any case; must not be empty
+   * @return filter matching comments whose commenter's name starts with prefix
+   */
+  public static Filter prefixFilter(String prefix) {
+    String lower = prefix.toLowerCase(Locale.ROOT);
+    if (lower.length() > MAX_PREFIX_LENGTH) {
+      lower = lower.substring(0, MAX_PREFIX_LENGTH);
+    }
+    return new FilterPredicate(PREFIXES_PROPERTY, FilterOperator.EQUAL, lower);
+  }
+}
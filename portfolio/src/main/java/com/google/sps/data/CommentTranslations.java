@@ -0,0 +1,117 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Text;
+
+/**
+ * Translations stored on Comment entities. New comments are translated in the background into
+ * the languages listed in the "translation.languages" system property, and each translation is
+ * stored in a "text_" + language property next to the original text. The language the comment
+ * was written in is detected once and stored in the "language" property, so comments are never
+ * translated into their own language.
+ */
+public final class CommentTranslations {
+
+  private static final String DEFAULT_LANGUAGES = "en,es,fr,de,zh,hi,ar,pt,ru,ja";
+
+  private static final List<String> LANGUAGES = parseLanguages(
+      System.getProperty("translation.languages", DEFAULT_LANGUAGES));
+
+  private CommentTranslations() {}
+
+  /**
+   * @return the languages new comments are translated into
+   */
+  public static List<String> getLanguages() {
+    return LANGUAGES;
+  }
+
+  /**
+   * @return the name of the property holding the translation into languageCode
+   */
+  public static String propertyFor(String languageCode) {
+    return "text_" + languageCode;
+  }
+
+  /**
+   * Gets a stored translation. A comment already written in languageCode is its own translation.
+   * @return translated text, or null if the comment hasn't been translated into languageCode
+   */
+  public static String getTranslation(Entity commentEntity, String languageCode) {
+    if (sameLanguage(getSourceLanguage(commentEntity), languageCode)) {
+      return getText(commentEntity, "text");
+    }
+    return getText(commentEntity, propertyFor(languageCode));
+  }
+
+  /**
+   * @return the detected language of the comment, or null if it hasn't been detected
+   */
+  public static String getSourceLanguage(Entity commentEntity) {
+    return (String) commentEntity.getProperty("language");
+  }
+
+  /**
+   * Compares language codes by their primary language, so "zh-CN" matches "zh"
+   * @return true if both codes are set and name the same language
+   */
+  public static boolean sameLanguage(String a, String b) {
+    if (a == null || b == null) {
+      return false;
+    }
+    return primaryLanguage(a).equalsIgnoreCase(primaryLanguage(b));
+  }
+
+  private static String primaryLanguage(String languageCode) {
+    int dash = languageCode.indexOf('-');
+    return dash < 0 ? languageCode : languageCode.substring(0, dash);
+  }
+
+  /**
+   * Stores a translation on the comment. Translations can be long, so they are stored as
+   * unindexed Text.
+   */
+  public static void setTranslation(Entity commentEntity, String languageCode, String text) {
+    commentEntity.setUnindexedProperty(propertyFor(languageCode), new Text(text));
+  }
+
+  /**
+   * Reads a property that may be stored as either a String or a Text
+   * @return the property value, or null if it isn't set
+   */
+  public static String getText(Entity entity, String property) {
+    Object value = entity.getProperty(property);
+    if (value instanceof Text) {
+      return ((Text) value).getValue();
+    }
+    return (String) value;
+  }
+
+  private static List<String> parseLanguages(String languages) {
+    List<String> parsed = new ArrayList<>();
+    for (String language : languages.split(",")) {
+      if (!language.trim().isEmpty()) {
+        parsed.add(language.trim());
+      }
+    }
+    return Collections.unmodifiableList(parsed);
+  }
+}
@@ -0,0 +1,85 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * Caches serialized /list-comments responses in memcache. Every cache key includes a version
+ * number that writers bump whenever comments change, so a change invalidates every cached
+ * response at once without having to find them; the old entries simply expire.
+ */
+public final class CommentsResponseCache {
+
+  private static final String VERSION_KEY = "comments-version";
+  private static final Expiration EXPIRATION = Expiration.byDeltaSeconds(10 * 60);
+
+  private static final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
+  private CommentsResponseCache() {}
+
+  /**
+   * @return the current comments version, to build cache keys with
+   */
+  public static long getVersion() {
+    Long version = memcache.increment(VERSION_KEY, 0L, seed());
+    // If memcache can't be reached, use a version no cached response has.
+    return version == null ? seed() : version;
+  }
+
+  /**
+   * Invalidates every cached response. Call after any change to comments.
+   */
+  public static void invalidate() {
+    memcache.increment(VERSION_KEY, 1L, seed());
+  }
+
+  /**
+   * Starts the counter again after memcache has evicted it. A fixed seed would go back to
+   * versions that responses from before the eviction are still cached under, so those stale
+   * pages would be served again. The clock has moved past every earlier seed, and a counter
+   * that is only bumped on writes can't catch up with it.
+   */
+  private static long seed() {
+    return System.currentTimeMillis();
+  }
+
+  /**
+   * Builds the key of one response
+   * @param version comments version from getVersion(), read before querying Datastore
+   * @param params the request parameters that affect the response
+   */
+  public static String key(long version, String... params) {
+    StringBuilder key = new StringBuilder("list-comments:").append(version);
+    for (String param : params) {
+      // Length-prefix each part so no two parameter lists build the same key.
+      key.append(':').append(param == null ? -1 : param.length()).append(':').append(param);
+    }
+    return key.toString();
+  }
+
+  /**
+   * @return the cached response body, or null if there is none
+   */
+  public static byte[] get(String key) {
+    return (byte[]) memcache.get(key);
+  }
+
+  public static void put(String key, byte[] body) {
+    memcache.put(key, body, EXPIRATION);
+  }
+}
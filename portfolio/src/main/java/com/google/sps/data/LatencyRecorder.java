@@ -0,0 +1,72 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the most recent request latencies of one endpoint and logs their median and 99th
+ * percentile every so often, so changes to the endpoint can be compared in the logs.
+ */
+public final class LatencyRecorder {
+
+  private static final Logger logger = Logger.getLogger(LatencyRecorder.class.getName());
+
+  private static final int WINDOW = 1000;
+  private static final int LOG_EVERY = 100;
+
+  private final String name;
+  private final long[] samples = new long[WINDOW];
+  private int count;
+
+  /**
+   * @param name endpoint name to log the percentiles under
+   */
+  public LatencyRecorder(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Records one request
+   * @param nanos how long the request took
+   */
+  public void record(long nanos) {
+    long[] window;
+    synchronized (this) {
+      samples[count % WINDOW] = nanos;
+      count++;
+      if (count % LOG_EVERY != 0) {
+        return;
+      }
+      window = Arrays.copyOf(samples, Math.min(count, WINDOW));
+    }
+
+    // Sort outside the lock so requests aren't held up by logging.
+    Arrays.sort(window);
+    logger.info(String.format("%s latency over last %d requests: p50=%dms p99=%dms", name,
+        window.length, toMillis(percentile(window, 50)), toMillis(percentile(window, 99))));
+  }
+
+  private static long percentile(long[] sorted, int percent) {
+    int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+    return sorted[Math.max(0, index)];
+  }
+
+  private static long toMillis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+}
@@ -0,0 +1,387 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.ThreadManager;
+import com.google.cloud.translate.Detection;
+import com.google.cloud.translate.Translate;
+import com.google.cloud.translate.TranslateException;
+import com.google.cloud.translate.TranslateOptions;
+import com.google.cloud.translate.Translation;
+
+/**
+ * Two-tier cache of translated text. Recent translations are kept in memory in an LRU map whose
+ * entries expire after a while; every translation is also stored in Datastore as a
+ * "Translation" entity, so other instances and restarted ones don't pay for it again. Both tiers
+ * are keyed by a SHA-256 hash of the target language and the text.
+ */
+public final class TranslationCache {
+
+  private static final int MAX_ENTRIES = 10_000;
+  private static final long TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  // Cloud Translate accepts at most 128 texts per request and recommends staying under 30,000
+  // characters.
+  private static final int MAX_TEXTS_PER_REQUEST = 128;
+  private static final int MAX_CHARS_PER_REQUEST = 30_000;
+  private static final int MAX_PARALLEL_REQUESTS = 8;
+
+  private static final long NO_DEADLINE = Long.MIN_VALUE;
+
+  private static final TranslationCache INSTANCE = new TranslationCache();
+
+  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final Map<String, CachedTranslation> recent =
+      new LinkedHashMap<String, CachedTranslation>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedTranslation> eldest) {
+          return size() > MAX_ENTRIES;
+        }
+      };
+  private Translate translate;
+
+  private TranslationCache() {}
+
+  public static TranslationCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Translates text, calling Cloud Translate only if neither tier has it
+   * @param text text to translate
+   * @param languageCode target language code, like "en"
+   * @return translated text, or the original text if translation failed
+   */
+  public String translate(String text, String languageCode) {
+    return translateAll(Collections.singletonList(text), languageCode).get(0);
+  }
+
+  /**
+   * Translates many texts at once. Texts that neither tier has are read from Datastore with one
+   * batch get and sent to Cloud Translate in as few requests as the request limits allow.
+   * @param texts texts to translate
+   * @param languageCode target language code, like "en"
+   * @return translations in the same order as texts; a text whose translation failed is returned
+   *         as is
+   */
+  public List<String> translateAll(List<String> texts, String languageCode) {
+    List<String> translated = lookupAll(texts, languageCode, NO_DEADLINE);
+    for (int i = 0; i < texts.size(); i++) {
+      if (translated.get(i) == null) {
+        translated.set(i, texts.get(i));
+      }
+    }
+    return translated;
+  }
+
+  /**
+   * Translates text, reporting failures instead of falling back to the original
+   * @return translated text, or null if translation failed
+   */
+  public String tryTranslate(String text, String languageCode) {
+    return lookupAll(Collections.singletonList(text), languageCode, NO_DEADLINE).get(0);
+  }
+
+  /**
+   * Translates many texts at once, giving up on Cloud Translate calls that haven't finished
+   * within the timeout
+   * @param timeoutMillis how long to wait for Cloud Translate
+   * @return translations in the same order as texts; null where translation failed or took too
+   *         long
+   */
+  public List<String> tryTranslateAll(List<String> texts, String languageCode,
+      long timeoutMillis) {
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    return lookupAll(texts, languageCode, deadlineNanos);
+  }
+
+  /**
+   * Detects the language text is written in
+   * @return language code, like "en", or null if detection failed
+   */
+  public String detectLanguage(String text) {
+    if (text == null || text.trim().isEmpty()) {
+      return null;
+    }
+    try {
+      Detection detection = getTranslate().detect(text);
+      return detection.getLanguage();
+    } catch (TranslateException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Looks up or translates every text
+   * @param deadlineNanos System.nanoTime() by which to give up on Cloud Translate, or NO_DEADLINE
+   * @return translations in the same order as texts; null where translation failed or missed the
+   *         deadline. Empty texts are returned as is.
+   */
+  private List<String> lookupAll(List<String> texts, String languageCode, long deadlineNanos) {
+    List<String> translated = new ArrayList<>(Collections.nCopies(texts.size(), (String) null));
+
+    // Texts still missing after the memory tier, by hash. Repeated texts are looked up once.
+    String[] hashes = new String[texts.size()];
+    Map<String, String> found = new HashMap<>();
+    Map<String, String> missing = new LinkedHashMap<>();
+    for (int i = 0; i < texts.size(); i++) {
+      String text = texts.get(i);
+      if (text == null || text.isEmpty()) {
+        translated.set(i, text);
+        continue;
+      }
+      hashes[i] = hash(languageCode, text);
+      String translatedText = getRecent(hashes[i]);
+      if (translatedText != null) {
+        found.put(hashes[i], translatedText);
+      } else {
+        missing.put(hashes[i], text);
+      }
+    }
+
+    if (!missing.isEmpty()) {
+      List<Key> keys = new ArrayList<>();
+      for (String hash : missing.keySet()) {
+        keys.add(KeyFactory.createKey("Translation", hash));
+      }
+      for (Entity entity : datastore.get(keys).values()) {
+        String hash = entity.getKey().getName();
+        String translatedText = ((Text) entity.getProperty("translatedText")).getValue();
+        found.put(hash, translatedText);
+        putRecent(hash, translatedText);
+        missing.remove(hash);
+      }
+    }
+
+    if (!missing.isEmpty()) {
+      translateMissing(missing, languageCode, found, deadlineNanos);
+    }
+
+    // Match translations back to the texts by index.
+    for (int i = 0; i < texts.size(); i++) {
+      if (hashes[i] != null && found.containsKey(hashes[i])) {
+        translated.set(i, found.get(hashes[i]));
+      }
+    }
+    return translated;
+  }
+
+  /**
+   * Translate texts no tier has and store the results in both tiers. The texts are split into
+   * chunks that stay under Cloud Translate's request limits and are spread over up to
+   * MAX_PARALLEL_REQUESTS concurrent calls, so a cold page waits for the slowest call rather than
+   * for all of them in turn.
+   * @param missing texts to translate by hash
+   * @param found map to add the translations to by hash
+   * @param deadlineNanos System.nanoTime() by which to give up on unfinished calls, or NO_DEADLINE
+   */
+  private void translateMissing(Map<String, String> missing, String languageCode,
+      Map<String, String> found, long deadlineNanos) {
+    List<String> hashes = new ArrayList<>(missing.keySet());
+
+    // Aim for one chunk per thread, unless that breaks the request limits.
+    int targetSize = (hashes.size() + MAX_PARALLEL_REQUESTS - 1) / MAX_PARALLEL_REQUESTS;
+    List<List<String>> chunks = new ArrayList<>();
+    int start = 0;
+    while (start < hashes.size()) {
+      // Fill the chunk until it hits a limit, but always take at least one text.
+      int end = start;
+      int chars = 0;
+      while (end < hashes.size() && end - start < Math.min(targetSize, MAX_TEXTS_PER_REQUEST)) {
+        int length = missing.get(hashes.get(end)).length();
+        if (end > start && chars + length > MAX_CHARS_PER_REQUEST) {
+          break;
+        }
+        chars += length;
+        end++;
+      }
+      chunks.add(hashes.subList(start, end));
+      start = end;
+    }
+
+    Map<String, String> translated = new HashMap<>();
+    if (chunks.size() == 1 && deadlineNanos == NO_DEADLINE) {
+      translated.putAll(translateChunk(chunks.get(0), missing, languageCode));
+    } else {
+      translated.putAll(translateConcurrently(chunks, missing, languageCode, deadlineNanos));
+    }
+
+    List<Entity> entities = new ArrayList<>();
+    for (Map.Entry<String, String> entry : translated.entrySet()) {
+      found.put(entry.getKey(), entry.getValue());
+      putRecent(entry.getKey(), entry.getValue());
+
+      Entity entity = new Entity("Translation", entry.getKey());
+      entity.setProperty("language", languageCode);
+      entity.setUnindexedProperty("translatedText", new Text(entry.getValue()));
+      entities.add(entity);
+    }
+    if (!entities.isEmpty()) {
+      datastore.put(entities);
+    }
+  }
+
+  /**
+   * Translate every chunk on its own thread, waiting no later than the deadline
+   * @return translations by hash of the chunks that finished in time
+   */
+  private Map<String, String> translateConcurrently(List<List<String>> chunks,
+      Map<String, String> missing, String languageCode, long deadlineNanos) {
+    if (deadlineNanos != NO_DEADLINE && deadlineNanos - System.nanoTime() <= 0) {
+      // Nothing would finish in time, so don't spend quota on results that would be thrown away.
+      // The caller falls back to the original texts.
+      return Collections.emptyMap();
+    }
+
+    // App Engine standard only allows threads tied to the current request, so the pool lives
+    // for one call.
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(chunks.size(), MAX_PARALLEL_REQUESTS), ThreadManager.currentRequestThreadFactory());
+    Map<String, String> translated = new HashMap<>();
+    try {
+      List<Future<Map<String, String>>> futures = new ArrayList<>();
+      for (List<String> chunk : chunks) {
+        futures.add(executor.submit(() -> translateChunk(chunk, missing, languageCode)));
+      }
+
+      for (Future<Map<String, String>> future : futures) {
+        try {
+          if (deadlineNanos == NO_DEADLINE) {
+            translated.putAll(future.get());
+          } else {
+            translated.putAll(
+                future.get(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS));
+          }
+        } catch (TimeoutException | ExecutionException e) {
+          // Leave the chunk untranslated; the caller falls back to the original texts.
+          future.cancel(true);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    return translated;
+  }
+
+  /**
+   * Translate one chunk with a single Cloud Translate call
+   * @return translations by hash, or nothing if the call failed
+   */
+  private Map<String, String> translateChunk(List<String> hashes, Map<String, String> missing,
+      String languageCode) {
+    List<String> texts = new ArrayList<>();
+    for (String hash : hashes) {
+      texts.add(missing.get(hash));
+    }
+
+    Map<String, String> translated = new HashMap<>();
+    List<Translation> translations;
+    try {
+      translations = getTranslate().translate(
+          texts, Translate.TranslateOption.targetLanguage(languageCode));
+    } catch (TranslateException e) {
+      // Don't cache failures, so the next request tries again.
+      return translated;
+    }
+
+    // Translations come back in the order the texts were sent.
+    for (int i = 0; i < translations.size(); i++) {
+      translated.put(hashes.get(i), translations.get(i).getTranslatedText());
+    }
+    return translated;
+  }
+
+  private synchronized String getRecent(String hash) {
+    CachedTranslation cached = recent.get(hash);
+    if (cached == null) {
+      return null;
+    }
+    if (cached.expiresAt < System.currentTimeMillis()) {
+      recent.remove(hash);
+      return null;
+    }
+    return cached.translatedText;
+  }
+
+  private synchronized void putRecent(String hash, String translatedText) {
+    recent.put(hash, new CachedTranslation(translatedText, System.currentTimeMillis() + TTL_MILLIS));
+  }
+
+  /** Creating the client is slow, so share one. */
+  private synchronized Translate getTranslate() {
+    if (translate == null) {
+      translate = TranslateOptions.getDefaultInstance().getService();
+    }
+    return translate;
+  }
+
+  /**
+   * Hash the language and text into a Datastore key name
+   * @return hex SHA-256 of the language and text
+   */
+  private static String hash(String languageCode, String text) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(languageCode.getBytes(StandardCharsets.UTF_8));
+      // Separate the two so "ab" + "c" and "a" + "bc" differ.
+      digest.update((byte) 0);
+      digest.update(text.getBytes(StandardCharsets.UTF_8));
+
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest.digest()) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /** A translation and when it stops being served from memory. */
+  private static final class CachedTranslation {
+    private final String translatedText;
+    private final long expiresAt;
+
+    private CachedTranslation(String translatedText, long expiresAt) {
+      this.translatedText = translatedText;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -19,20 +19,111 @@ import com.google.appengine.api.blobstore.BlobInfoFactory;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.blobstore.ByteRange;
+import com.google.appengine.api.blobstore.RangeFormatException;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Retrieves blob from request param's blob key */
+/**
+ * Retrieves blob from request param's blob key. A blob never changes once uploaded, so responses
+ * can be cached for good and revalidated by the blob key alone. Single byte ranges are served as
+ * partial content.
+ */
 @WebServlet("/serve")
 public class BlobstoreFileServingServlet extends HttpServlet {
 
+  private static final String CACHE_CONTROL =
+      "public, max-age=" + TimeUnit.DAYS.toSeconds(365) + ", immutable";
+
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String blobKeyParam = request.getParameter("blob-key");
+    if (blobKeyParam == null || blobKeyParam.isEmpty()) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "blob-key is required");
+      return;
+    }
+    BlobKey blobKey = new BlobKey(blobKeyParam);
+    String etag = "\"" + blobKey.getKeyString() + "\"";
+    response.setHeader("ETag", etag);
+    response.setHeader("Cache-Control", CACHE_CONTROL);
+
+    // The browser's copy is current if it has this blob at all; no need to look the blob up.
+    if (matches(request.getHeader("If-None-Match"), etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    BlobInfo blobInfo = new BlobInfoFactory().loadBlobInfo(blobKey);
+    if (blobInfo == null) {
+      response.setHeader("Cache-Control", "no-store");
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    long size = blobInfo.getSize();
+    response.setHeader("Accept-Ranges", "bytes");
+    response.setDateHeader("Last-Modified", blobInfo.getCreation().getTime());
+
     BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
-    BlobKey blobKey = new BlobKey(request.getParameter("blob-key"));
-    blobstoreService.serve(blobKey, response);
+    String rangeHeader = request.getHeader("Range");
+    // Only honor the range if it is for this blob, which any If-Range validator naming it is.
+    String ifRange = request.getHeader("If-Range");
+    if (rangeHeader == null || (ifRange != null && !ifRange.equals(etag))) {
+      blobstoreService.serve(blobKey, response);
+      return;
+    }
+
+    ByteRange range;
+    try {
+      range = ByteRange.parse(rangeHeader);
+    } catch (RangeFormatException e) {
+      // Malformed and multi-part ranges are ignored, as HTTP allows.
+      blobstoreService.serve(blobKey, response);
+      return;
+    }
+
+    // Resolve suffix ("bytes=-500") and open-ended ("bytes=500-") ranges against the size.
+    long first;
+    long last;
+    if (range.getStart() < 0) {
+      first = Math.max(0, size + range.getStart());
+      last = size - 1;
+    } else {
+      first = range.getStart();
+      last = range.hasEnd() ? Math.min(range.getEnd(), size - 1) : size - 1;
+    }
+    if (first >= size || first > last) {
+      response.setHeader("Content-Range", "bytes */" + size);
+      response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      return;
+    }
+
+    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    response.setHeader("Content-Range", "bytes " + first + "-" + last + "/" + size);
+    blobstoreService.serve(blobKey, new ByteRange(first, last), response);
+  }
+
+  /**
+   * Checks an If-None-Match header against the blob's ETag. Weak and strong validators are
+   * compared the same way, as they are for GET.
+   * @return true if the header lists the ETag or is "*"
+   */
+  private static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if (candidate.equals("*") || candidate.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
   }
 }
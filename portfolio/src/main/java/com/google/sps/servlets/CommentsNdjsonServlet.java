@@ -0,0 +1,274 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.sps.data.CommentImages;
+import com.google.sps.data.CommentIndex;
+import com.google.sps.data.CommentNames;
+import com.google.sps.data.CommentTranslations;
+import com.google.sps.data.CommentsResponseCache;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.KeyRange;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueConstants;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+
+/**
+ * Admin servlet that backs up and restores comments as newline-delimited JSON, one comment per
+ * line. GET streams every comment out a batch at a time; POST reads lines as they arrive and
+ * stores them with one datastore.put per batch. Memory use is bounded by the batch size either
+ * way. Imported comments get the same treatment as new ones: they are indexed for search, and
+ * any that lack a detected language or translations are queued for the translation task.
+ */
+@WebServlet("/admin/comments")
+public class CommentsNdjsonServlet extends HttpServlet {
+
+  private static final int BATCH_SIZE = 500;
+  // 1500 bytes of UTF-8 holds at least this many characters.
+  private static final int MAX_STRING_CHARS = 500;
+
+  Gson gson = new Gson();
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!isAdmin(response)) {
+      return;
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Query query = new Query("Comment");
+
+    response.setContentType("application/x-ndjson");
+    response.setCharacterEncoding("UTF-8");
+    Writer writer = new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8);
+
+    Cursor cursor = null;
+    while (true) {
+      FetchOptions fetchOptions = FetchOptions.Builder.withLimit(BATCH_SIZE);
+      if (cursor != null) {
+        fetchOptions.startCursor(cursor);
+      }
+      QueryResultList<Entity> batch = datastore.prepare(query).asQueryResultList(fetchOptions);
+
+      for (Entity entity : batch) {
+        writer.write(gson.toJson(toJson(entity)));
+        writer.write('\n');
+      }
+      writer.flush();
+
+      if (batch.size() < BATCH_SIZE) {
+        break;
+      }
+      cursor = batch.getCursor();
+    }
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!isAdmin(response)) {
+      return;
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8));
+
+    int imported = 0;
+    int skipped = 0;
+    List<Entity> batch = new ArrayList<>();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      try {
+        batch.add(fromJson(JsonParser.parseString(line).getAsJsonObject()));
+      } catch (JsonParseException | IllegalStateException | IllegalArgumentException
+          | ClassCastException e) {
+        // Bad lines don't stop the rest of the import.
+        skipped++;
+        continue;
+      }
+      if (batch.size() == BATCH_SIZE) {
+        putAndIndex(datastore, batch);
+        imported += batch.size();
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      putAndIndex(datastore, batch);
+      imported += batch.size();
+    }
+    CommentsResponseCache.invalidate();
+
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("imported", imported);
+    json.put("skipped", skipped);
+    response.setContentType("application/json;");
+    response.getWriter().println(gson.toJson(json));
+  }
+
+  /**
+   * Store a batch of comments and their search index entries, and queue translation for the ones
+   * that need it. Index entries are keyed by word, so a re-imported comment overwrites its old
+   * entries; words its new text no longer has keep matching it until the comment is deleted.
+   */
+  private void putAndIndex(DatastoreService datastore, List<Entity> batch) {
+    reserveIds(datastore, batch);
+    datastore.put(batch);
+    List<Entity> tokens = new ArrayList<>();
+    for (Entity entity : batch) {
+      for (Entity token : CommentIndex.tokensFor(entity)) {
+        tokens.add(token);
+        if (tokens.size() == BATCH_SIZE) {
+          datastore.put(tokens);
+          tokens.clear();
+        }
+      }
+    }
+    if (!tokens.isEmpty()) {
+      datastore.put(tokens);
+    }
+
+    Queue queue = QueueFactory.getDefaultQueue();
+    List<TaskOptions> tasks = new ArrayList<>();
+    for (Entity entity : batch) {
+      if (TranslateCommentTaskServlet.isPending(entity)) {
+        tasks.add(TranslateCommentTaskServlet.taskFor(entity.getKey().getId()));
+        if (tasks.size() == QueueConstants.maxTasksPerAdd()) {
+          queue.add(tasks);
+          tasks.clear();
+        }
+      }
+    }
+    if (!tasks.isEmpty()) {
+      queue.add(tasks);
+    }
+  }
+
+  /**
+   * Reserve the ids the batch brings with it, so Datastore never hands them out to new comments
+   * and a later post can't overwrite a restored comment. Ids that are already in use, like those
+   * of comments being restored over themselves, are expected.
+   */
+  private void reserveIds(DatastoreService datastore, List<Entity> batch) {
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    for (Entity entity : batch) {
+      if (entity.getKey().isComplete()) {
+        min = Math.min(min, entity.getKey().getId());
+        max = Math.max(max, entity.getKey().getId());
+      }
+    }
+    if (min <= max) {
+      datastore.allocateIdRange(new KeyRange(null, "Comment", min, max));
+    }
+  }
+
+  /**
+   * Only admins can move comments in bulk
+   * @return true if the current user is an admin; otherwise sends an error
+   */
+  private boolean isAdmin(HttpServletResponse response) throws IOException {
+    UserService userService = UserServiceFactory.getUserService();
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Convert a comment entity to one line of the export. Every property is kept, including stored
+   * translations, so an import restores the comment as it was.
+   */
+  private Map<String, Object> toJson(Entity entity) {
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("id", entity.getKey().getId());
+    for (Map.Entry<String, Object> property : entity.getProperties().entrySet()) {
+      Object value = property.getValue();
+      json.put(property.getKey(), value instanceof Text ? ((Text) value).getValue() : value);
+    }
+    return json;
+  }
+
+  /**
+   * Convert one line of an export back to a comment entity. Lines with an id overwrite the
+   * comment with that id.
+   */
+  private Entity fromJson(JsonObject json) {
+    Entity entity = json.has("id")
+        ? new Entity("Comment", json.get("id").getAsLong())
+        : new Entity("Comment");
+    for (Map.Entry<String, JsonElement> property : json.entrySet()) {
+      String name = property.getKey();
+      JsonElement value = property.getValue();
+      if (name.equals("id") || value.isJsonNull()) {
+        continue;
+      }
+
+      if (name.equals("timestamp")) {
+        entity.setProperty(name, value.getAsLong());
+      } else if (name.equals(CommentImages.SERVING_PROPERTY)) {
+        CommentImages.setServingUrl(entity, value.getAsString());
+      } else if (name.startsWith(CommentTranslations.propertyFor(""))) {
+        CommentTranslations.setTranslation(
+            entity, name.substring(CommentTranslations.propertyFor("").length()),
+            value.getAsString());
+      } else if (value.getAsString().length() > MAX_STRING_CHARS) {
+        // Strings are limited to 1500 bytes; longer text has to be stored as unindexed Text.
+        entity.setUnindexedProperty(name, new Text(value.getAsString()));
+      } else {
+        entity.setProperty(name, value.getAsString());
+      }
+    }
+    // Derived rather than read, so re-importing an export fills them in for older comments.
+    if (entity.getProperty("username") instanceof String) {
+      CommentNames.setUsername(entity, (String) entity.getProperty("username"));
+    }
+    return entity;
+  }
+}
@@ -23,18 +23,16 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.google.gson.Gson;
-import com.google.sps.data.Comment;
+import com.google.sps.data.CommentDeleter;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.SortDirection;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
 
-/** Servlet that deletes all comments */
+/**
+ * Servlet that deletes all comments. Deletes one round of comments right away; if there are more,
+ * the rest are deleted by a background job whose progress is reported by /delete-comments-status.
+ */
 @WebServlet("/delete-all-comments")
 public class DeleteAllCommentsServlet extends HttpServlet {
 
@@ -42,22 +40,30 @@ public class DeleteAllCommentsServlet extends HttpServlet {
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    Query query = new Query("Comment");
-    PreparedQuery results = datastore.prepare(query);
-
-    // Track comments deleted.
-    int count = 0;
-
-    // Delete all comments.
-    for (Entity entity : results.asIterable()) {
-      Key commentEntityKey = entity.getKey();
-      datastore.delete(commentEntityKey);
-      count++;
+    CommentDeleter deleter = new CommentDeleter(null, null);
+    int deleted = deleter.deleteRound();
+
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("deleted", deleted);
+    json.put("done", deleter.isDone());
+
+    if (!deleter.isDone()) {
+      // Too many to delete within this request. Hand the rest to the task queue.
+      DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+      Entity job = new Entity(DeleteCommentsTaskServlet.JOB_KIND);
+      job.setProperty("status", "running");
+      job.setProperty("deleted", (long) deleted);
+      job.setProperty("started", System.currentTimeMillis());
+      datastore.put(job);
+
+      QueueFactory.getDefaultQueue().add(
+          DeleteCommentsTaskServlet.continuation(job.getKey().getId(), deleter));
+
+      json.put("jobId", job.getKey().getId());
+      response.setStatus(HttpServletResponse.SC_ACCEPTED);
     }
 
-    // Returns empty response.
     response.setContentType("application/json;");
-    response.getWriter().println(count);
+    response.getWriter().println(gson.toJson(json));
   }
-}
\ No newline at end of file
+}
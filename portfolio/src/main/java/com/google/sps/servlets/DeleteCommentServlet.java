@@ -24,6 +24,8 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.google.gson.Gson;
 import com.google.sps.data.Comment;
+import com.google.sps.data.CommentIndex;
+import com.google.sps.data.CommentsResponseCache;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.FetchOptions;
@@ -46,7 +48,11 @@ public class DeleteCommentServlet extends HttpServlet {
 
     Key commentEntityKey = KeyFactory.createKey("Comment", id);
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    datastore.delete(commentEntityKey);
+    // Delete the comment together with its search index entries.
+    List<Key> keys = CommentIndex.getTokenKeys(datastore, commentEntityKey);
+    keys.add(commentEntityKey);
+    datastore.delete(keys);
+    CommentsResponseCache.invalidate();
   }
   
 }
\ No newline at end of file
@@ -0,0 +1,65 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.gson.Gson;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.KeyFactory;
+
+/** Servlet that reports the progress of a delete-all job */
+@WebServlet("/delete-comments-status")
+public class DeleteCommentsStatusServlet extends HttpServlet {
+
+  Gson gson = new Gson();
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Entity job;
+    try {
+      long id = Long.parseLong(request.getParameter("job"));
+      job = datastore.get(KeyFactory.createKey(DeleteCommentsTaskServlet.JOB_KIND, id));
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "job must be a number");
+      return;
+    } catch (EntityNotFoundException e) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("jobId", job.getKey().getId());
+    json.put("status", job.getProperty("status"));
+    json.put("deleted", job.getProperty("deleted"));
+    json.put("done", "done".equals(job.getProperty("status")));
+    json.put("started", job.getProperty("started"));
+    json.put("finished", job.getProperty("finished"));
+
+    response.setContentType("application/json;");
+    response.getWriter().println(gson.toJson(json));
+  }
+}
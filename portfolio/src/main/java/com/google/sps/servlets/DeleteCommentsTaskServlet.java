@@ -0,0 +1,104 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.sps.data.CommentDeleter;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+
+/**
+ * Task queue worker for a delete-all job. Deletes rounds of comments until they run out or the
+ * task has used up its time, recording progress on the job entity after every round. If comments
+ * remain, it queues another task that picks up from the same cursor.
+ */
+@WebServlet("/tasks/delete-comments")
+public class DeleteCommentsTaskServlet extends HttpServlet {
+
+  public static final String URL = "/tasks/delete-comments";
+  public static final String JOB_KIND = "DeleteCommentsJob";
+
+  // Push tasks get 10 minutes; leave room to record progress and queue the next task.
+  private static final long TIME_BUDGET_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // App Engine strips this header from outside requests, so only the task queue can call us.
+    if (request.getHeader("X-AppEngine-QueueName") == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    String jobParam = request.getParameter("job");
+    String kindParam = request.getParameter("kind");
+    String cursorParam = request.getParameter("cursor");
+    Entity job;
+    CommentDeleter deleter;
+    try {
+      if (jobParam == null || cursorParam == null) {
+        throw new IllegalArgumentException("job and cursor are required");
+      }
+      job = datastore.get(KeyFactory.createKey(JOB_KIND, Long.parseLong(jobParam)));
+      deleter = new CommentDeleter(kindParam,
+          cursorParam.isEmpty() ? null : Cursor.fromWebSafeString(cursorParam));
+    } catch (EntityNotFoundException | IllegalArgumentException e) {
+      // Retrying won't help, so finish the task.
+      response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+      return;
+    }
+
+    long started = System.currentTimeMillis();
+    long deleted = (long) job.getProperty("deleted");
+    while (!deleter.isDone() && System.currentTimeMillis() - started < TIME_BUDGET_MILLIS) {
+      deleted += deleter.deleteRound();
+      job.setProperty("deleted", deleted);
+      datastore.put(job);
+    }
+
+    if (deleter.isDone()) {
+      job.setProperty("status", "done");
+      job.setProperty("finished", System.currentTimeMillis());
+      datastore.put(job);
+    } else {
+      QueueFactory.getDefaultQueue().add(continuation(job.getKey().getId(), deleter));
+    }
+    response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+  }
+
+  /**
+   * @return a task that picks up the job where the deleter left off
+   */
+  static TaskOptions continuation(long jobId, CommentDeleter deleter) {
+    Cursor cursor = deleter.getCursor();
+    return TaskOptions.Builder.withUrl(URL)
+        .param("job", Long.toString(jobId))
+        .param("kind", deleter.getKind())
+        .param("cursor", cursor == null ? "" : cursor.toWebSafeString());
+  }
+}
@@ -0,0 +1,145 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.sps.data.CommentIndex;
+import com.google.sps.data.CommentNames;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+
+/**
+ * Task queue worker that builds the search index for comments written before it existed, and
+ * stores the name prefixes the name filter needs on comments that lack them. Walks every comment
+ * in batches until they run out or the task has used up its time, then queues another task that
+ * picks up from the same cursor. Indexing a comment again overwrites its entries, so the job can
+ * be rerun safely.
+ */
+@WebServlet("/tasks/index-comments")
+public class IndexCommentsTaskServlet extends HttpServlet {
+
+  public static final String URL = "/tasks/index-comments";
+
+  private static final int BATCH_SIZE = 100;
+  // One put takes at most 500 entities.
+  private static final int MAX_PUT_SIZE = 500;
+  // Push tasks get 10 minutes; leave room to queue the next task.
+  private static final long TIME_BUDGET_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // App Engine strips this header from outside requests, so only the task queue can call us.
+    if (request.getHeader("X-AppEngine-QueueName") == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    Cursor cursor;
+    try {
+      String cursorParam = request.getParameter("cursor");
+      cursor = cursorParam == null || cursorParam.isEmpty()
+          ? null : Cursor.fromWebSafeString(cursorParam);
+    } catch (IllegalArgumentException e) {
+      // Retrying won't help, so finish the task.
+      response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+      return;
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Query query = new Query("Comment");
+    long started = System.currentTimeMillis();
+    boolean done = false;
+    while (!done && System.currentTimeMillis() - started < TIME_BUDGET_MILLIS) {
+      FetchOptions fetchOptions = FetchOptions.Builder.withLimit(BATCH_SIZE);
+      if (cursor != null) {
+        fetchOptions.startCursor(cursor);
+      }
+      QueryResultList<Entity> batch = datastore.prepare(query).asQueryResultList(fetchOptions);
+
+      List<Entity> tokens = new ArrayList<>();
+      for (Entity comment : batch) {
+        if (CommentNames.needsPrefixes(comment)) {
+          addNamePrefixes(datastore, comment.getKey());
+        }
+        for (Entity token : CommentIndex.tokensFor(comment)) {
+          tokens.add(token);
+          if (tokens.size() == MAX_PUT_SIZE) {
+            datastore.put(tokens);
+            tokens.clear();
+          }
+        }
+      }
+      if (!tokens.isEmpty()) {
+        datastore.put(tokens);
+      }
+
+      done = batch.size() < BATCH_SIZE;
+      cursor = batch.getCursor();
+    }
+
+    if (!done) {
+      QueueFactory.getDefaultQueue().add(continuation(cursor));
+    }
+    response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+  }
+
+  /**
+   * Stores the name prefixes on the latest version of a comment, so edits made since the batch
+   * was read, such as new translations, aren't overwritten
+   */
+  private static void addNamePrefixes(DatastoreService datastore, Key key) {
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      Entity latest = datastore.get(transaction, key);
+      CommentNames.setUsername(latest, (String) latest.getProperty("username"));
+      datastore.put(transaction, latest);
+      transaction.commit();
+    } catch (EntityNotFoundException e) {
+      // Deleted since the batch was read.
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  /**
+   * @param cursor where to pick up, or null to start from the first comment
+   * @return a task that indexes the comments from the cursor on
+   */
+  static TaskOptions continuation(Cursor cursor) {
+    return TaskOptions.Builder.withUrl(URL)
+        .param("cursor", cursor == null ? "" : cursor.toWebSafeString());
+  }
+}
@@ -15,7 +15,12 @@
 package com.google.sps.servlets;
 
 import java.util.*;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.io.UnsupportedEncodingException;
 
 import javax.servlet.annotation.WebServlet;
@@ -24,7 +29,14 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import com.google.sps.data.Comment;
+import com.google.sps.data.CommentImages;
+import com.google.sps.data.CommentIndex;
+import com.google.sps.data.CommentNames;
+import com.google.sps.data.CommentTranslations;
+import com.google.sps.data.CommentsResponseCache;
+import com.google.sps.data.TranslationCache;
 import com.google.appengine.api.datastore.*;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
@@ -40,34 +52,36 @@ import com.google.appengine.api.datastore.Query.SortDirection;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
-import com.google.cloud.translate.Translate;
-import com.google.cloud.translate.TranslateOptions;
-import com.google.cloud.translate.Translation;
 import com.google.api.client.http.HttpResponseException;
-import com.google.cloud.translate.TranslateException;
 
-/** Servlet that returns comments */
+/** Servlet that returns comments, or with a q parameter the comments matching a search */
 @WebServlet("/list-comments")
 public class ListCommentsServlet extends HttpServlet {
 
   DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
   Gson gson = new Gson();
 
+  // How long a page waits for Cloud Translate before serving untranslated text.
+  private static final long TRANSLATE_DEADLINE_MILLIS = 1500;
+  // Comments fetched, translated and written at a time.
+  private static final int BATCH_SIZE = 50;
+  // Memcache values are limited to 1 MB.
+  private static final int MAX_CACHED_BYTES = 900 * 1024;
+
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Query query = new Query("Comment");
-
-    // Filter on name.
-    query = filterQuery(request, query, "searchName", "username");
-
-    // Select sort method.
-    String sort = getParameter(request, "sort", "descending");
-    if (sort.equals("ascending")){
-      query.addSort("timestamp", SortDirection.ASCENDING);
-    } else {
-      query.addSort("timestamp", SortDirection.DESCENDING);
+    // Serve the same request from the cache until a comment changes. Read the version before
+    // querying, so a write that races with this request can't leave a stale response cached.
+    String cacheKey = CommentsResponseCache.key(CommentsResponseCache.getVersion(),
+        getParameter(request, "searchName", ""), getParameter(request, "sort", "descending"),
+        getParameter(request, "limit", "5"), getParameter(request, "language", "en"),
+        getParameter(request, "cursor", ""), getParameter(request, "q", ""));
+    byte[] cached = CommentsResponseCache.get(cacheKey);
+    if (cached != null) {
+      writeJson(response, cached);
+      return;
     }
-    
+
     // Get max limit on comments. Invalid input will defult to 5.
     int limit;
     try {
@@ -75,28 +89,166 @@ public class ListCommentsServlet extends HttpServlet {
     } catch (NumberFormatException e) {
       limit = 5;
     }
-    List<Entity> results = datastore.prepare(query).asList(FetchOptions.Builder.withLimit(limit));
+    if (limit <= 0) {
+      limit = 5;
+    }
+    String startCursor = getParameter(request, "cursor", "");
+
+    Iterator<Entity> results;
+    QueryResultIterator<Entity> queryResults = null;
+    CommentIndex.Page searchPage = null;
+    String searchText = getParameter(request, "q", "").trim();
+    if (!searchText.isEmpty()) {
+      // Full-text searches list matches newest first from the index, so the name filter and sort
+      // don't apply.
+      try {
+        searchPage = CommentIndex.search(searchText, startCursor, limit);
+      } catch (IllegalArgumentException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor");
+        return;
+      }
+      results = searchPage.getComments().iterator();
+    } else {
+      Query query = new Query("Comment");
+
+      // Filter on names starting with searchName, ignoring case.
+      query = filterPrefix(request, query, "searchName");
+
+      // Select sort method.
+      String sort = getParameter(request, "sort", "descending");
+      if (sort.equals("ascending")){
+        query.addSort("timestamp", SortDirection.ASCENDING);
+      } else {
+        query.addSort("timestamp", SortDirection.DESCENDING);
+      }
 
-    // Populate list with comment kind of entities
-    ArrayList<Comment> comments = new ArrayList<>();
-    for (Entity entity : results) {
+      // Continue from the cursor of the previous page, if there is one.
+      FetchOptions fetchOptions = FetchOptions.Builder.withLimit(limit);
+      if (!startCursor.isEmpty()) {
+        try {
+          fetchOptions.startCursor(Cursor.fromWebSafeString(startCursor));
+        } catch (IllegalArgumentException e) {
+          response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor");
+          return;
+        }
+      }
+      queryResults =
+          datastore.prepare(query).asQueryResultIterator(fetchOptions.chunkSize(BATCH_SIZE));
+      results = queryResults;
+    }
+
+    // Stream the page out a batch at a time instead of building it all in memory first. Keep a
+    // copy for the cache unless the page grows too big for memcache.
+    response.setContentType("application/json;");
+    response.setCharacterEncoding("UTF-8");
+    CopyingOutputStream out =
+        new CopyingOutputStream(response.getOutputStream(), MAX_CACHED_BYTES);
+    JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    writer.beginObject();
+    writer.name("comments").beginArray();
+
+    String languageCode = getParameter(request, "language", "en");
+    long deadline = System.currentTimeMillis() + TRANSLATE_DEADLINE_MILLIS;
+    boolean allTranslated = true;
+    int count = 0;
+    List<Entity> batch = new ArrayList<>();
+    while (results.hasNext()) {
+      batch.add(results.next());
+      count++;
+      if (batch.size() == BATCH_SIZE || !results.hasNext()) {
+        allTranslated &= writeComments(writer, batch, languageCode, deadline);
+        // Send what we have so far.
+        writer.flush();
+        batch.clear();
+      }
+    }
+    writer.endArray();
+
+    String nextCursor;
+    if (searchPage != null) {
+      nextCursor = searchPage.getCursor();
+    } else {
+      // A short page means there is nothing after it.
+      Cursor queryCursor = queryResults.getCursor();
+      nextCursor = count == limit && queryCursor != null ? queryCursor.toWebSafeString() : null;
+    }
+    if (nextCursor != null) {
+      writer.name("cursor").value(nextCursor);
+    }
+    writer.endObject();
+    writer.flush();
+    out.write('\n');
+    out.flush();
+
+    // Don't cache fallbacks to the original text; the translations may be ready next time.
+    byte[] body = out.getCopy();
+    if (allTranslated && body != null) {
+      CommentsResponseCache.put(cacheKey, body);
+    }
+  }
+
+  /**
+   * Translates a batch of comments and writes them to the JSON array
+   * @param deadline time in millis after which untranslated comments keep their original text
+   * @return true if every comment was translated
+   */
+  private boolean writeComments(JsonWriter writer, List<Entity> batch, String languageCode,
+      long deadline) throws IOException {
+    // Serve the translations stored on write. Translate the rest concurrently, but don't hold
+    // the page past the deadline.
+    List<String> texts = new ArrayList<>();
+    boolean[] translated = new boolean[batch.size()];
+    List<Integer> untranslated = new ArrayList<>();
+    List<String> untranslatedTexts = new ArrayList<>();
+    for (int i = 0; i < batch.size(); i++) {
+      Entity entity = batch.get(i);
+      String stored = CommentTranslations.getTranslation(entity, languageCode);
+      texts.add(stored);
+      translated[i] = stored != null;
+      if (stored == null) {
+        untranslated.add(i);
+        untranslatedTexts.add(CommentTranslations.getText(entity, "text"));
+      }
+    }
+    if (!untranslated.isEmpty()) {
+      long timeout = Math.max(0, deadline - System.currentTimeMillis());
+      List<String> translations = TranslationCache.getInstance()
+          .tryTranslateAll(untranslatedTexts, languageCode, timeout);
+      for (int i = 0; i < untranslated.size(); i++) {
+        int index = untranslated.get(i);
+        String translation = translations.get(i);
+        // Fall back to the original text for comments that missed the deadline.
+        texts.set(index, translation == null ? untranslatedTexts.get(i) : translation);
+        translated[index] = translation != null;
+      }
+    }
+
+    boolean allTranslated = true;
+    for (int i = 0; i < batch.size(); i++) {
+      Entity entity = batch.get(i);
       long id = entity.getKey().getId();
       String username = (String) entity.getProperty("username");
       String email = (String) entity.getProperty("email");
-      String text = (String) entity.getProperty("text");
+      String text = texts.get(i);
       String image = (String) entity.getProperty("image");
+      String imageServing = (String) entity.getProperty("image_serving");
+      String thumbnail = CommentImages.resized(imageServing, CommentImages.THUMBNAIL_SIZE);
+      String medium = CommentImages.resized(imageServing, CommentImages.MEDIUM_SIZE);
       long timestamp = (long) entity.getProperty("timestamp");
-      
-      // Translate text
-      text = translate(request, text);
 
-      Comment comment = new Comment(id, username, email, text, image, timestamp);
-      comments.add(comment);
+      Comment comment = new Comment(id, username, email, text, image, thumbnail, medium,
+          timestamp, translated[i]);
+      gson.toJson(comment, Comment.class, writer);
+      allTranslated &= translated[i];
     }
+    return allTranslated;
+  }
 
+  private void writeJson(HttpServletResponse response, byte[] body) throws IOException {
     response.setContentType("application/json;");
-    response.setCharacterEncoding("UTF-8"); 
-    response.getWriter().println(gson.toJson(comments));
+    response.setCharacterEncoding("UTF-8");
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
   }
 
   /**
@@ -113,40 +265,63 @@ public class ListCommentsServlet extends HttpServlet {
   }
 
   /**
-   * Filter query based on given params
-   * @param searchParam parameter that holds specified value to filter on
-   * @param matchParam parameter to filter for specified value 
-   * @return query filtered by searchParam that matches matchParam
+   * Filter query to comments whose name starts with the given param, ignoring case
+   * @param searchParam parameter that holds the prefix to filter on
+   * @return query filtered to names starting with searchParam
    */
-  private Query filterQuery(HttpServletRequest request, Query query, String searchParam, String matchParam)  {
-    String searchValue = getParameter(request, searchParam, null);
+  private Query filterPrefix(HttpServletRequest request, Query query, String searchParam)  {
+    String prefix = getParameter(request, searchParam, "");
 
     // No param to filter on.
-    if (searchValue.equals("")){
+    if (prefix.equals("")){
       return query;
     }
 
-    Filter filter = new FilterPredicate(matchParam, FilterOperator.EQUAL, searchValue);
-    return query.setFilter(filter);
+    // An equality filter on the stored prefixes, so results can still be sorted by timestamp.
+    return query.setFilter(CommentNames.prefixFilter(prefix));
   }
 
   /**
-   * Translates text
-   * @param text comment to translate
-   * @return translated text
+   * Passes bytes through to the response and keeps a copy of them, until the copy would grow
+   * past its limit
    */
-  private String translate(HttpServletRequest request, String text) {
-    // Get the request language param with English default.
-    String languageCode = getParameter(request, "language", "en");
+  private static final class CopyingOutputStream extends FilterOutputStream {
+    private final int maxCopyBytes;
+    private ByteArrayOutputStream copy = new ByteArrayOutputStream();
 
-    String translatedText;
-    try {
-      Translate translate = TranslateOptions.getDefaultInstance().getService();
-      Translation translation = translate.translate(text, Translate.TranslateOption.targetLanguage(languageCode));
-      translatedText = translation.getTranslatedText();
-    } catch (TranslateException e) {
-      return text;
+    CopyingOutputStream(OutputStream out, int maxCopyBytes) {
+      super(out);
+      this.maxCopyBytes = maxCopyBytes;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      copy(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      copy(b, off, len);
+    }
+
+    private void copy(byte[] b, int off, int len) {
+      if (copy == null) {
+        return;
+      }
+      if (copy.size() + len > maxCopyBytes) {
+        copy = null;
+      } else {
+        copy.write(b, off, len);
+      }
+    }
+
+    /**
+     * @return everything written, or null if it went over the limit
+     */
+    byte[] getCopy() {
+      return copy == null ? null : copy.toByteArray();
     }
-    return translatedText;
   }
 }
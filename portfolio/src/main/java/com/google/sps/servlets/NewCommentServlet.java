@@ -16,6 +16,8 @@ package com.google.sps.servlets;
 
 import java.util.*;
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -24,6 +26,11 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.google.gson.Gson;
 import com.google.sps.data.Comment;
+import com.google.sps.data.CommentImages;
+import com.google.sps.data.CommentIndex;
+import com.google.sps.data.CommentNames;
+import com.google.sps.data.CommentsResponseCache;
+import com.google.sps.data.LatencyRecorder;
 import com.google.appengine.api.datastore.*;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
@@ -44,14 +51,20 @@ import com.google.appengine.api.blobstore.BlobInfoFactory;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskHandle;
 
 /** Servlet that creates a new comment */
 @WebServlet("/new-comment")
 public class NewCommentServlet extends HttpServlet {
 
+  private static final LatencyRecorder latency = new LatencyRecorder("new-comment");
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    long started = System.nanoTime();
+    AsyncDatastoreService datastore = DatastoreServiceFactory.getAsyncDatastoreService();
     UserService userService = UserServiceFactory.getUserService();
 
     // Only logged-in users can post messages
@@ -65,21 +78,64 @@ public class NewCommentServlet extends HttpServlet {
     String username = getParameter(request, "username", null);
     String email = userService.getCurrentUser().getEmail();
     long timestamp = System.currentTimeMillis();
-    String image = getBlobKey(request);
-    
+
+    // Detecting the language and looking up the image's serving URL call other services, so the
+    // background task does both and the post only waits on Datastore.
+    BlobKey blobKey = getUploadedBlobKey(request);
+    String image = blobKey == null ? null : CommentImages.getImageUrl(blobKey);
+
     Entity commentEntity = new Entity("Comment");
-    commentEntity.setProperty("username", username);
+    // Names are searched by prefix regardless of case.
+    CommentNames.setUsername(commentEntity, username);
     commentEntity.setProperty("email", email);
     commentEntity.setProperty("text", text);
     commentEntity.setProperty("image", image);
     commentEntity.setProperty("timestamp", timestamp);
 
-    datastore.put(commentEntity);
+    // Store the comment while looking up the uploaded image's metadata. Almost every upload is
+    // a real file, so the comment is stored with its image and only patched when it wasn't.
+    Future<Entity> blobInfo = blobKey == null ? null : datastore.get(
+        KeyFactory.createKey(BlobInfoFactory.KIND, blobKey.getKeyString()));
+    Key key = await(datastore.put(commentEntity));
+    if (blobKey != null && !isUploaded(blobKey, blobInfo)) {
+      commentEntity.setProperty("image", null);
+      await(datastore.put(commentEntity));
+    }
+
+    // Translate the comment and look up its image's serving URL in the background, so reads can
+    // serve the stored results.
+    // Queue the task while indexing the comment for search. The cached pages are invalidated
+    // once both the comment and its index entries are stored.
+    Queue queue = QueueFactory.getDefaultQueue();
+    Future<TaskHandle> task = queue.addAsync(TranslateCommentTaskServlet.taskFor(key.getId()));
+    await(datastore.put(CommentIndex.tokensFor(commentEntity)));
+    CommentsResponseCache.invalidate();
+    await(task);
+
+    latency.record(System.nanoTime() - started);
 
     // Redirect to contact page with default display params
     response.sendRedirect("/contact.html");
   }
 
+  /**
+   * Wait for an asynchronous call
+   * @return the call's result
+   */
+  private static <T> T await(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+
   /**
    * @return the request parameter, or the default value if the parameter
    *         was not specified by the client
@@ -94,28 +150,50 @@ public class NewCommentServlet extends HttpServlet {
   }
 
   /**
-   * Gets blob key to access image
-   * @return url with blob key
+   * Gets the key of the uploaded image, if the form had one
+   * @return blob key, or null if no file was uploaded
    */
-  private String getBlobKey(HttpServletRequest request) {
+  private BlobKey getUploadedBlobKey(HttpServletRequest request) {
     BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
     Map<String, List<BlobKey>> blobs = blobstoreService.getUploads(request);
     List<BlobKey> blobKeys = blobs.get("image");
 
     // User submitted form without selecting a file, so we can't get a URL. (dev server)
     if (blobKeys == null || blobKeys.isEmpty()) {
-        return null;
-    } else {
-      // Our form only contains a single file input, so get the first index.
-      BlobKey blobKey = blobKeys.get(0);
-      
-      // User submitted form without selecting a file, so we can't get a URL. (live server)
-      BlobInfo blobInfo = new BlobInfoFactory().loadBlobInfo(blobKey);
-      if (blobInfo.getSize() == 0) {
-        blobstoreService.delete(blobKey);
-        return null;
+      return null;
+    }
+    // Our form only contains a single file input, so get the first index.
+    return blobKeys.get(0);
+  }
+
+  /**
+   * Checks that a file was actually uploaded, and deletes the empty blob if it wasn't
+   * @param blobInfo pending lookup of the blob's metadata entity
+   * @return true if there is an uploaded image
+   */
+  private boolean isUploaded(BlobKey blobKey, Future<Entity> blobInfo) throws IOException {
+    if (blobKey == null) {
+      return false;
+    }
+
+    // User submitted form without selecting a file, so we can't get a URL. (live server)
+    Entity info;
+    try {
+      info = blobInfo.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof EntityNotFoundException) {
+        return false;
       }
-      return ("/serve?blob-key=" + blobKey.getKeyString());
+      throw new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+    Long size = (Long) info.getProperty("size");
+    if (size == null || size == 0) {
+      BlobstoreServiceFactory.getBlobstoreService().delete(blobKey);
+      return false;
     }
+    return true;
   }
 }
@@ -0,0 +1,181 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.sps.data.CommentImages;
+import com.google.sps.data.CommentTranslations;
+import com.google.sps.data.CommentsResponseCache;
+import com.google.sps.data.TranslationCache;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.images.ImagesServiceFailureException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+
+/**
+ * Task queue worker that does the slow work for a new comment off the request path: it detects
+ * the comment's language, translates it into every configured language and looks up its image's
+ * serving URL, and stores the results on the comment, so neither posts nor reads have to wait on
+ * Cloud Translate or the Images service.
+ */
+@WebServlet("/tasks/translate-comment")
+public class TranslateCommentTaskServlet extends HttpServlet {
+
+  public static final String URL = "/tasks/translate-comment";
+
+  /**
+   * @return the task that fills in what is missing on the comment with this id
+   */
+  public static TaskOptions taskFor(long id) {
+    return TaskOptions.Builder.withUrl(URL).param("id", Long.toString(id));
+  }
+
+  /**
+   * @return true if the comment still lacks its detected language, a translation or its image's
+   *     serving URL
+   */
+  public static boolean isPending(Entity commentEntity) {
+    if (CommentImages.needsServingUrl(commentEntity)) {
+      return true;
+    }
+    // Without text there is nothing to detect or translate.
+    String text = CommentTranslations.getText(commentEntity, "text");
+    if (text == null || text.trim().isEmpty()) {
+      return false;
+    }
+    if (CommentTranslations.getSourceLanguage(commentEntity) == null) {
+      return true;
+    }
+    for (String languageCode : CommentTranslations.getLanguages()) {
+      if (CommentTranslations.getTranslation(commentEntity, languageCode) == null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // App Engine strips this header from outside requests, so only the task queue can call us.
+    if (request.getHeader("X-AppEngine-QueueName") == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    long id;
+    try {
+      id = Long.parseLong(request.getParameter("id"));
+    } catch (NumberFormatException e) {
+      // Retrying won't help, so finish the task.
+      response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+      return;
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Key key = KeyFactory.createKey("Comment", id);
+
+    Entity commentEntity;
+    try {
+      commentEntity = datastore.get(key);
+    } catch (EntityNotFoundException e) {
+      // The comment was deleted before we got to it.
+      response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+      return;
+    }
+
+    // Translate outside the transaction; the calls are slow and the text never changes.
+    String text = CommentTranslations.getText(commentEntity, "text");
+    TranslationCache cache = TranslationCache.getInstance();
+    Entity translated = new Entity(key);
+    boolean failed = false;
+    boolean hasText = text != null && !text.trim().isEmpty();
+    if (hasText && CommentTranslations.getSourceLanguage(commentEntity) == null) {
+      String language = cache.detectLanguage(text);
+      if (language == null) {
+        failed = true;
+      } else {
+        translated.setProperty("language", language);
+        commentEntity.setProperty("language", language);
+      }
+    }
+    if (CommentImages.needsServingUrl(commentEntity)) {
+      try {
+        String servingUrl = CommentImages.getServingUrl(
+            CommentImages.getBlobKey((String) commentEntity.getProperty("image")));
+        // Not an image the Images service can resize; remember that, so it isn't asked again.
+        CommentImages.setServingUrl(
+            translated, servingUrl == null ? CommentImages.NO_SERVING_URL : servingUrl);
+      } catch (ImagesServiceFailureException e) {
+        failed = true;
+      }
+    }
+    for (String languageCode : CommentTranslations.getLanguages()) {
+      if (!hasText || CommentTranslations.getTranslation(commentEntity, languageCode) != null) {
+        continue;
+      }
+      String translatedText = cache.tryTranslate(text, languageCode);
+      if (translatedText == null) {
+        failed = true;
+      } else {
+        CommentTranslations.setTranslation(translated, languageCode, translatedText);
+      }
+    }
+
+    if (!translated.getProperties().isEmpty()) {
+      saveTranslations(datastore, translated);
+      // Cached pages were rendered without these translations and serving URL.
+      CommentsResponseCache.invalidate();
+    }
+
+    if (failed) {
+      // Let the task queue retry whatever failed. The results that worked are saved.
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    } else {
+      response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+  }
+
+  /**
+   * Copy the translations onto the latest version of the comment
+   * @param translated entity holding only the new translation properties
+   */
+  private void saveTranslations(DatastoreService datastore, Entity translated) {
+    Key key = translated.getKey();
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      Entity latest = datastore.get(transaction, key);
+      latest.setPropertiesFrom(translated);
+      datastore.put(transaction, latest);
+      transaction.commit();
+    } catch (EntityNotFoundException e) {
+      // Deleted while we were translating.
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+}
@@ -36,23 +36,60 @@ function toggleText(divID) {
   content.classList.toggle('visible');
 }
 
+// Cursor for the next page of comments, or null when there are no more.
+var nextCommentsCursor = null;
+// Query the cursor belongs to, saved when the first page was requested.
+var commentsQuery = null;
+
 /**
- * Retrieves comments from server
+ * Retrieves the first page of comments from server
  */
 function getComments() {
-  const limit = document.getElementById('limit').value;
-  const sort = document.getElementById('sort').value;
-  const searchParam = document.getElementById('searchName').value;
-  const language = document.getElementById('language').value;
+  const params = new URLSearchParams();
+  params.append('limit', document.getElementById('limit').value);
+  params.append('sort', document.getElementById('sort').value);
+  params.append('searchName', document.getElementById('searchName').value);
+  params.append('q', document.getElementById('q').value);
+  params.append('language', document.getElementById('language').value);
+
+  commentsQuery = params;
+  nextCommentsCursor = null;
+  document.getElementById('comment-container').innerHTML = 'COMMENTS: ';
+  fetchComments();
+}
 
-  fetch('/list-comments?limit=' + limit + '&sort=' + sort + '&searchName=' + searchParam + '&language=' + language).then(response => response.json()).then((comments) => {
+/**
+ * Appends the next page of comments
+ */
+function getMoreComments() {
+  if (nextCommentsCursor) {
+    fetchComments();
+  }
+}
 
-    const commentListElement = document.getElementById('comment-container');
-    commentListElement.innerHTML = 'COMMENTS: ';
+/**
+ * Fetches one page of the saved query, continuing from the saved cursor. The form may have
+ * changed since the first page, but the cursor only makes sense for the query it came from.
+ */
+function fetchComments() {
+  const query = commentsQuery;
+  const params = new URLSearchParams(query);
+  if (nextCommentsCursor) {
+    params.append('cursor', nextCommentsCursor);
+  }
 
-    comments.forEach((comment) => {
+  fetch('/list-comments?' + params.toString()).then(response => response.json()).then((page) => {
+    if (query !== commentsQuery) {
+      // A newer query started while this page was loading.
+      return;
+    }
+    const commentListElement = document.getElementById('comment-container');
+    page.comments.forEach((comment) => {
       commentListElement.appendChild(createCommentElement(comment));
-    })    
+    })
+
+    nextCommentsCursor = page.cursor || null;
+    document.getElementById('more-comments').hidden = !nextCommentsCursor;
   });
 }
 
@@ -99,10 +136,20 @@ function createCommentElement(comment) {
   // Text 
   const textElement = document.createElement('p');
   textElement.innerText = comment.text;
+  // The server couldn't translate this one in time, so it is the original text.
+  if (comment.translated === false) {
+    textElement.title = 'Not translated';
+  }
 
-  // Image 
+  // Image. Show the thumbnail and open the medium copy on click; only comments posted before
+  // the resized copies existed fall back to the original upload.
   imageElement = document.createElement('img');
-  if (comment.image){
+  if (comment.thumbnail){
+    imageElement.src = comment.thumbnail;
+    imageElement.addEventListener('click', () => {
+      window.open(comment.medium, '_blank');
+    });
+  } else if (comment.image){
     imageElement.src = comment.image;
   }
 
@@ -134,6 +181,7 @@ function initFunctions(){
     initParam('limit'); 
     initParam('sort'); 
     initParam('searchName');
+    initParam('q');
     initParam('language');
     getComments(); 
     isAuth(); 
@@ -167,11 +215,20 @@ async function deleteComment(comment) {
   getComments();
 }
 
-/** Tells the server to delete all comments. */
+/**
+ * Tells the server to delete all comments. Large deletes continue in the
+ * background, so poll the job until it is done.
+ */
 async function deleteAllComments() {
   const response = await fetch('/delete-all-comments', {method: 'POST'});
-  const comments = await response.text();
-  console.log("# Comments Deleted: " + comments);
+  let status = await response.json();
+  while (!status.done) {
+    console.log("# Comments Deleted so far: " + status.deleted);
+    await new Promise(resolve => setTimeout(resolve, 1000));
+    const statusResponse = await fetch('/delete-comments-status?job=' + status.jobId);
+    status = await statusResponse.json();
+  }
+  console.log("# Comments Deleted: " + status.deleted);
   getComments();
 }
 
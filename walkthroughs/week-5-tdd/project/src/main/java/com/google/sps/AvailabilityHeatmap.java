@@ -0,0 +1,170 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counts how many attendees are free in each fixed-size time bucket. Every attendee is added as a
+ * bitmap with one bit per bucket that is set when they are busy. The bitmaps are summed 64 buckets
+ * at a time into bit-sliced counters: plane {@code k} holds bit {@code k} of every bucket's count,
+ * so adding an attendee is a short ripple-carry over whole words instead of one increment per
+ * bucket.
+ */
+public final class AvailabilityHeatmap {
+  private final int buckets;
+  private final int words;
+  // Clears the bits past the last bucket in the final word.
+  private final long lastWordMask;
+  // planes.get(k)[w] holds bit k of the busy count of the 64 buckets in word w.
+  private final List<long[]> planes = new ArrayList<>();
+  private int attendees;
+
+  /**
+   * Creates an empty heatmap.
+   *
+   * @param buckets The number of buckets each bitmap covers. Must be positive.
+   */
+  public AvailabilityHeatmap(int buckets) {
+    if (buckets <= 0) {
+      throw new IllegalArgumentException("buckets must be positive");
+    }
+
+    this.buckets = buckets;
+    this.words = wordsFor(buckets);
+    this.lastWordMask = -1L >>> (63 - ((buckets - 1) & 63));
+  }
+
+  /**
+   * Returns the number of longs needed to hold one bit per bucket.
+   */
+  public static int wordsFor(int buckets) {
+    return (buckets + 63) >>> 6;
+  }
+
+  /**
+   * Returns a bitmap with a bit set for every {@code bucketMinutes}-long bucket of the day that
+   * overlaps one of {@code events}.
+   */
+  public static long[] busyBuckets(List<Event> events, int bucketMinutes) {
+    int buckets = bucketsPerDay(bucketMinutes);
+    long[] bitmap = new long[wordsFor(buckets)];
+    for (Event event : events) {
+      setBusy(bitmap, 0, event.getWhen(), bucketMinutes);
+    }
+    return bitmap;
+  }
+
+  /**
+   * Sets the bit of every {@code bucketMinutes}-long bucket that {@code when} overlaps on day
+   * {@code day} of a bitmap covering several days, where each day starts at bucket
+   * {@code day * bucketsPerDay(bucketMinutes)}.
+   */
+  public static void setBusy(long[] bitmap, int day, TimeRange when, int bucketMinutes) {
+    if (when.duration() <= 0) {
+      return;
+    }
+    int buckets = bucketsPerDay(bucketMinutes);
+    int first = when.start() / bucketMinutes;
+    int last = Math.min(buckets - 1, (when.end() - 1) / bucketMinutes);
+    setRange(bitmap, day * buckets + first, day * buckets + last);
+  }
+
+  /**
+   * Returns how many buckets of {@code bucketMinutes} cover a whole day.
+   */
+  public static int bucketsPerDay(int bucketMinutes) {
+    if (bucketMinutes <= 0) {
+      throw new IllegalArgumentException("bucketMinutes must be positive");
+    }
+    return (TimeRange.WHOLE_DAY.duration() + bucketMinutes - 1) / bucketMinutes;
+  }
+
+  /**
+   * Sets bits {@code first} through {@code last}, inclusive, a word at a time.
+   */
+  private static void setRange(long[] bitmap, int first, int last) {
+    int firstWord = first >>> 6;
+    int lastWord = last >>> 6;
+    long firstMask = -1L << (first & 63);
+    long lastMask = -1L >>> (63 - (last & 63));
+    if (firstWord == lastWord) {
+      bitmap[firstWord] |= firstMask & lastMask;
+      return;
+    }
+    bitmap[firstWord] |= firstMask;
+    for (int word = firstWord + 1; word < lastWord; word++) {
+      bitmap[word] = -1L;
+    }
+    bitmap[lastWord] |= lastMask;
+  }
+
+  /**
+   * Adds one attendee given their busy bitmap.
+   */
+  public void add(long[] busy) {
+    if (busy.length != words) {
+      throw new IllegalArgumentException("bitmap must have " + words + " words");
+    }
+
+    attendees++;
+    // A new plane is needed whenever the count reaches the next power of two.
+    if (attendees >= (1 << planes.size())) {
+      planes.add(new long[words]);
+    }
+
+    for (int word = 0; word < words; word++) {
+      long carry = word == words - 1 ? busy[word] & lastWordMask : busy[word];
+      for (int plane = 0; carry != 0; plane++) {
+        long[] bits = planes.get(plane);
+        long overflow = bits[word] & carry;
+        bits[word] ^= carry;
+        carry = overflow;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of attendees added so far.
+   */
+  public int getAttendees() {
+    return attendees;
+  }
+
+  /**
+   * Returns the number of attendees that are free in each bucket.
+   */
+  public int[] freeCounts() {
+    int[] free = new int[buckets];
+    for (int bucket = 0; bucket < buckets; bucket++) {
+      free[bucket] = attendees;
+    }
+
+    for (int plane = 0; plane < planes.size(); plane++) {
+      long[] bits = planes.get(plane);
+      for (int word = 0; word < words; word++) {
+        // Only visit the set bits of each word.
+        long remaining = bits[word];
+        while (remaining != 0) {
+          int bucket = (word << 6) + Long.numberOfTrailingZeros(remaining);
+          free[bucket] -= 1 << plane;
+          remaining &= remaining - 1;
+        }
+      }
+    }
+    return free;
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Hypothetical changes to a calendar, used to ask "what if" questions. The changes are applied
+ * while reading a snapshot rather than to a copy of it: attendees the overlay doesn't touch are
+ * read straight from the snapshot, and only the touched attendees' own events are copied.
+ */
+public final class CalendarOverlay {
+  /** An overlay with no changes. */
+  public static final CalendarOverlay NONE =
+      new CalendarOverlay(Collections.emptySet(), Collections.emptySet());
+
+  private final List<Event> added;
+  private final List<Event> removed;
+  private final Set<String> touched = new HashSet<>();
+
+  /**
+   * Creates an overlay.
+   *
+   * @param added Events to book on top of the calendar. Must be non-null.
+   * @param removed Events to cancel, matched with {@code equals}. Must be non-null.
+   */
+  public CalendarOverlay(Collection<Event> added, Collection<Event> removed) {
+    if (added == null || removed == null) {
+      throw new IllegalArgumentException("events cannot be null. Use empty collection instead.");
+    }
+
+    this.added = Collections.unmodifiableList(new ArrayList<>(added));
+    this.removed = Collections.unmodifiableList(new ArrayList<>(removed));
+    for (Event event : this.added) {
+      touched.addAll(event.getAttendees());
+    }
+    for (Event event : this.removed) {
+      touched.addAll(event.getAttendees());
+    }
+  }
+
+  /**
+   * Returns true if the overlay changes any of {@code attendees}' events.
+   */
+  public boolean touchesAny(Collection<String> attendees) {
+    if (touched.isEmpty()) {
+      return false;
+    }
+    for (String attendee : attendees) {
+      if (touched.contains(attendee)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns {@code attendee}'s events with the overlay applied, sorted by start time.
+   */
+  public List<Event> getEvents(CalendarSnapshot snapshot, String attendee) {
+    List<Event> events = snapshot.getCalendar(attendee).getEvents();
+    if (!touched.contains(attendee)) {
+      return events;
+    }
+
+    List<Event> changed = new ArrayList<>(events);
+    for (Event event : removed) {
+      if (event.getAttendees().contains(attendee)) {
+        changed.remove(event);
+      }
+    }
+    for (Event event : added) {
+      if (event.getAttendees().contains(attendee)) {
+        changed.add(event);
+      }
+    }
+    Collections.sort(changed, CalendarSnapshot.ORDER_BY_START);
+    return changed;
+  }
+
+  /**
+   * Returns the events that any of {@code attendees} attend with the overlay applied. Each event
+   * is included once.
+   */
+  public Collection<Event> getEvents(CalendarSnapshot snapshot, Collection<String> attendees) {
+    if (!touchesAny(attendees)) {
+      return snapshot.getEvents(attendees);
+    }
+
+    List<Collection<Event>> calendarEvents = new ArrayList<>();
+    for (String attendee : attendees) {
+      calendarEvents.add(getEvents(snapshot, attendee));
+    }
+    return CalendarSnapshot.distinct(calendarEvents);
+  }
+
+  /**
+   * Returns the free gaps in {@code attendee}'s day with the overlay applied. Untouched attendees
+   * reuse the tree cached in the snapshot.
+   */
+  public FreeGapTree getFreeGaps(CalendarSnapshot snapshot, String attendee) {
+    if (!touched.contains(attendee)) {
+      return snapshot.getCalendar(attendee).getFreeGaps();
+    }
+    return new FreeGapTree(getEvents(snapshot, attendee));
+  }
+}
@@ -0,0 +1,388 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable version of the calendar. Events are grouped per attendee so a query only touches
+ * the people it asks about. Changing the calendar produces a new snapshot that shares every
+ * attendee's data it didn't touch with this one, so snapshots are cheap to keep and safe to read
+ * from any thread without locking.
+ */
+public final class CalendarSnapshot {
+  /** The snapshot of a calendar with no events. */
+  public static final CalendarSnapshot EMPTY =
+      new CalendarSnapshot(0, HashTrie.empty(), AttendeeCalendar.EMPTY, null, null);
+
+  /**
+   * A comparator for sorting events by their start time in ascending order.
+   */
+  public static final Comparator<Event> ORDER_BY_START = new Comparator<Event>() {
+    @Override
+    public int compare(Event a, Event b) {
+      return TimeRange.ORDER_BY_START.compare(a.getWhen(), b.getWhen());
+    }
+  };
+
+  private final long version;
+  // Shares every untouched branch with the snapshot it was made from, so an edit copies only the
+  // path to each touched attendee.
+  private final HashTrie<AttendeeCalendar> calendars;
+  // Events nobody attends don't affect scheduling but are still part of the calendar.
+  private final AttendeeCalendar unattended;
+  // Every event sorted by start, built on first use for listing the whole calendar.
+  private volatile AttendeeCalendar everyone;
+  // The change from the snapshot this one was made from, if that snapshot had built its list of
+  // every event. Applying it is cheaper than sorting the whole calendar again.
+  private volatile Change everyoneChange;
+
+  private CalendarSnapshot(long version, HashTrie<AttendeeCalendar> calendars,
+      AttendeeCalendar unattended, AttendeeCalendar everyone, Change everyoneChange) {
+    this.version = version;
+    this.calendars = calendars;
+    this.unattended = unattended;
+    this.everyone = everyone;
+    this.everyoneChange = everyoneChange;
+  }
+
+  /**
+   * Returns a snapshot holding exactly {@code events}.
+   */
+  public static CalendarSnapshot of(Collection<Event> events) {
+    return EMPTY.with(events, Collections.emptySet());
+  }
+
+  /**
+   * Returns the version of this snapshot. Every change produces a snapshot with a higher version.
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns a copy of this snapshot that reports {@code newVersion} as its version.
+   */
+  CalendarSnapshot withVersion(long newVersion) {
+    return new CalendarSnapshot(newVersion, calendars, unattended, everyone, everyoneChange);
+  }
+
+  /**
+   * Returns every attendee that has at least one event.
+   */
+  public Set<String> getAttendees() {
+    return calendars.keySet();
+  }
+
+  /**
+   * Returns the events of one attendee, or an empty calendar if they have none.
+   */
+  public AttendeeCalendar getCalendar(String attendee) {
+    AttendeeCalendar calendar = calendars.get(attendee);
+    return calendar == null ? AttendeeCalendar.EMPTY : calendar;
+  }
+
+  /**
+   * Returns the events that any of {@code attendees} attend. Each event is included once.
+   */
+  public Collection<Event> getEvents(Collection<String> attendees) {
+    List<Collection<Event>> calendarEvents = new ArrayList<>();
+    for (String attendee : attendees) {
+      calendarEvents.add(getCalendar(attendee).getEvents());
+    }
+    return distinct(calendarEvents);
+  }
+
+  /**
+   * Returns the events of every collection in {@code eventLists}, each event once. Events are
+   * told apart by identity: {@code Event.hashCode} only looks at the title, so a hash set of
+   * events that share a title, like imported "Busy" blocks, degrades to a linear scan per event.
+   */
+  static List<Event> distinct(Collection<? extends Collection<Event>> eventLists) {
+    Set<Event> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    List<Event> events = new ArrayList<>();
+    for (Collection<Event> eventList : eventLists) {
+      for (Event event : eventList) {
+        if (seen.add(event)) {
+          events.add(event);
+        }
+      }
+    }
+    return events;
+  }
+
+  /**
+   * Returns a read-only list of every event in the calendar sorted by start time. The list is
+   * built on first use and kept with the snapshot.
+   */
+  public List<Event> getEvents() {
+    return getEveryone().getEvents();
+  }
+
+  private List<Event> sortEvents() {
+    // An event is stored once per attendee, so de-duplicate by identity rather than equality to
+    // keep two identical events booked separately.
+    Set<Event> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    List<Event> events = new ArrayList<>(unattended.getEvents());
+    for (AttendeeCalendar calendar : calendars.values()) {
+      for (Event event : calendar.getEvents()) {
+        if (event.getAttendees().size() == 1 || seen.add(event)) {
+          events.add(event);
+        }
+      }
+    }
+    Collections.sort(events, ORDER_BY_START);
+    return events;
+  }
+
+  /**
+   * Returns a page of the events in {@code window}, sorted by start time and then by content, so
+   * the cursor keeps its place when other events change. Events are looked up in the start-sorted
+   * index of {@code attendee}, or of the whole calendar if {@code attendee} is null, so the work
+   * done depends on the window and not on the size of the calendar.
+   *
+   * @param attendee Only list this attendee's events, or null for every event.
+   * @param window Only list events in this time window.
+   * @param cursor The cursor returned with the previous page, or null for the first page.
+   * @param limit The most events to return. Must be positive.
+   */
+  public EventPage getEvents(String attendee, TimeRange window, String cursor, int limit) {
+    AttendeeCalendar calendar = attendee == null ? getEveryone() : getCalendar(attendee);
+    return EventPage.of(calendar.getPageIndex(), window, cursor, limit);
+  }
+
+  private AttendeeCalendar getEveryone() {
+    AttendeeCalendar calendar = everyone;
+    if (calendar == null) {
+      Change change = everyoneChange;
+      calendar = change != null
+          ? change.base.with(change.added, change.removed)
+          : new AttendeeCalendar(sortEvents().toArray(new Event[0]));
+      everyone = calendar;
+      everyoneChange = null;
+    }
+    return calendar;
+  }
+
+  /**
+   * Returns a new snapshot with {@code added} booked and {@code removed} cancelled. Removed events
+   * are matched with {@code equals}. This snapshot is left unchanged.
+   */
+  public CalendarSnapshot with(Collection<Event> added, Collection<Event> removed) {
+    Map<String, List<Event>> addedByAttendee = groupByAttendee(added);
+    Map<String, List<Event>> removedByAttendee = groupByAttendee(removed);
+
+    Set<String> touched = new LinkedHashSet<>(addedByAttendee.keySet());
+    touched.addAll(removedByAttendee.keySet());
+    touched.remove(null);
+
+    // Only the touched attendees get new calendars; the rest are shared with this snapshot, so
+    // the work done depends on how many attendees changed and not on how many there are.
+    HashTrie<AttendeeCalendar> newCalendars = calendars;
+    for (String attendee : touched) {
+      AttendeeCalendar calendar = getCalendar(attendee).with(
+          addedByAttendee.getOrDefault(attendee, Collections.emptyList()),
+          removedByAttendee.getOrDefault(attendee, Collections.emptyList()));
+      if (calendar.getEvents().isEmpty()) {
+        newCalendars = newCalendars.without(attendee);
+      } else {
+        newCalendars = newCalendars.with(attendee, calendar);
+      }
+    }
+
+    AttendeeCalendar newUnattended = unattended.with(
+        addedByAttendee.getOrDefault(null, Collections.emptyList()),
+        removedByAttendee.getOrDefault(null, Collections.emptyList()));
+
+    // Only carry the change forward from a built list, so snapshots never chain back through ones
+    // that were never listed.
+    AttendeeCalendar currentEveryone = everyone;
+    Change change = currentEveryone == null ? null : new Change(currentEveryone,
+        new ArrayList<>(added), new ArrayList<>(removed));
+    return new CalendarSnapshot(version + 1, newCalendars, newUnattended, null, change);
+  }
+
+  /**
+   * Groups events by attendee. Events without attendees are grouped under {@code null}.
+   */
+  private static Map<String, List<Event>> groupByAttendee(Collection<Event> events) {
+    Map<String, List<Event>> grouped = new HashMap<>();
+    for (Event event : events) {
+      Collection<String> attendees = event.getAttendees();
+      if (attendees.isEmpty()) {
+        attendees = Collections.singleton(null);
+      }
+      for (String attendee : attendees) {
+        grouped.computeIfAbsent(attendee, key -> new ArrayList<>()).add(event);
+      }
+    }
+    return grouped;
+  }
+
+  /**
+   * The events of one attendee, sorted by start time. Attendee calendars are immutable and shared
+   * between snapshots.
+   */
+  public static final class AttendeeCalendar {
+    static final AttendeeCalendar EMPTY = new AttendeeCalendar(new Event[0]);
+
+    private final Event[] events;
+    // Built on first use. Racing threads build equal trees, so the last write winning is fine.
+    private volatile FreeGapTree freeGaps;
+    private volatile BusyBuckets busyBuckets;
+    private volatile EventPage.Index pageIndex;
+
+    private AttendeeCalendar(Event[] events) {
+      this.events = events;
+    }
+
+    /**
+     * Returns a read-only list of this attendee's events sorted by start time.
+     */
+    public List<Event> getEvents() {
+      return Collections.unmodifiableList(Arrays.asList(events));
+    }
+
+    /**
+     * Returns the free gaps in this attendee's day.
+     */
+    public FreeGapTree getFreeGaps() {
+      FreeGapTree tree = freeGaps;
+      if (tree == null) {
+        tree = new FreeGapTree(getEvents());
+        freeGaps = tree;
+      }
+      return tree;
+    }
+
+    /**
+     * Returns a bitmap of the {@code bucketMinutes}-long buckets of the day this attendee is busy
+     * in. The bitmap for the most recently requested bucket size is cached; don't modify it.
+     */
+    public long[] getBusyBuckets(int bucketMinutes) {
+      BusyBuckets cached = busyBuckets;
+      if (cached == null || cached.bucketMinutes != bucketMinutes) {
+        cached = new BusyBuckets(
+            bucketMinutes, AvailabilityHeatmap.busyBuckets(getEvents(), bucketMinutes));
+        busyBuckets = cached;
+      }
+      return cached.bitmap;
+    }
+
+    private EventPage.Index getPageIndex() {
+      EventPage.Index index = pageIndex;
+      if (index == null) {
+        index = new EventPage.Index(events);
+        pageIndex = index;
+      }
+      return index;
+    }
+
+    /**
+     * Returns a calendar with {@code added} booked and {@code removed} cancelled. Each removed
+     * event cancels the first equal event. Only the changes are sorted; the events are already
+     * sorted, so they are merged with the changes in one pass. That pass is linear apart from
+     * comparing each removed event with the events that start at the same time as it.
+     */
+    private AttendeeCalendar with(List<Event> added, List<Event> removed) {
+      if (added.isEmpty() && removed.isEmpty()) {
+        return this;
+      }
+
+      List<Event> sortedAdded = new ArrayList<>(added);
+      Collections.sort(sortedAdded, ORDER_BY_START);
+      List<Event> sortedRemoved = new ArrayList<>(removed);
+      Collections.sort(sortedRemoved, ORDER_BY_START);
+      // Removed events that have cancelled an event, by their index in sortedRemoved.
+      boolean[] matched = new boolean[sortedRemoved.size()];
+
+      List<Event> newEvents = new ArrayList<>(events.length + added.size());
+      int nextAdded = 0;
+      // The first removed event that could still start at the same time as the current event.
+      int nextRemoved = 0;
+      for (Event event : events) {
+        long start = event.getWhen().start();
+        while (nextRemoved < sortedRemoved.size()
+            && sortedRemoved.get(nextRemoved).getWhen().start() < start) {
+          nextRemoved++;
+        }
+        if (cancel(event, sortedRemoved, nextRemoved, matched)) {
+          continue;
+        }
+        // Existing events go before added ones that start at the same time.
+        while (nextAdded < sortedAdded.size()
+            && ORDER_BY_START.compare(sortedAdded.get(nextAdded), event) < 0) {
+          newEvents.add(sortedAdded.get(nextAdded++));
+        }
+        newEvents.add(event);
+      }
+      newEvents.addAll(sortedAdded.subList(nextAdded, sortedAdded.size()));
+      return new AttendeeCalendar(newEvents.toArray(new Event[0]));
+    }
+
+    /**
+     * Marks the first unmatched removed event equal to {@code event}, looking only at the removed
+     * events from {@code from} on that start at the same time.
+     *
+     * @return Whether {@code event} is cancelled.
+     */
+    private static boolean cancel(
+        Event event, List<Event> sortedRemoved, int from, boolean[] matched) {
+      long start = event.getWhen().start();
+      for (int i = from;
+          i < sortedRemoved.size() && sortedRemoved.get(i).getWhen().start() == start; i++) {
+        if (!matched[i] && sortedRemoved.get(i).equals(event)) {
+          matched[i] = true;
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /** A busy bitmap together with the bucket size it was built for. */
+  private static final class BusyBuckets {
+    private final int bucketMinutes;
+    private final long[] bitmap;
+
+    private BusyBuckets(int bucketMinutes, long[] bitmap) {
+      this.bucketMinutes = bucketMinutes;
+      this.bitmap = bitmap;
+    }
+  }
+
+  /** A change to apply to a snapshot's list of every event. */
+  private static final class Change {
+    private final AttendeeCalendar base;
+    private final List<Event> added;
+    private final List<Event> removed;
+
+    private Change(AttendeeCalendar base, List<Event> added, List<Event> removed) {
+      this.base = base;
+      this.added = added;
+      this.removed = removed;
+    }
+  }
+}
@@ -0,0 +1,108 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current {@code CalendarSnapshot}. Writers publish a new snapshot with a
+ * compare-and-set, so readers never lock: they take {@link #snapshot()} once and use it for the
+ * whole query, and concurrent edits can't change the calendar underneath them.
+ */
+public final class CalendarStore {
+  private final AtomicReference<CalendarSnapshot> current = new AtomicReference<>();
+  private final GroupDirectory groups = new GroupDirectory();
+
+  /**
+   * Creates a store holding {@code events}.
+   *
+   * @param events The initial events. Must be non-null.
+   */
+  public CalendarStore(Collection<Event> events) {
+    publish(events);
+  }
+
+  /**
+   * Returns the current snapshot. It never changes, so callers should hold on to it for as long
+   * as they need a consistent view.
+   */
+  public CalendarSnapshot snapshot() {
+    return current.get();
+  }
+
+  /**
+   * Returns the groups that can be invited to meetings on this calendar.
+   */
+  public GroupDirectory getGroups() {
+    return groups;
+  }
+
+  /**
+   * Returns every event in the current snapshot sorted by start time.
+   */
+  public List<Event> getEvents() {
+    return snapshot().getEvents();
+  }
+
+  /**
+   * Replaces every event in the store with {@code newEvents}.
+   */
+  public void publish(Collection<Event> newEvents) {
+    if (newEvents == null) {
+      throw new IllegalArgumentException("events cannot be null. Use empty collection instead.");
+    }
+
+    CalendarSnapshot contents = CalendarSnapshot.of(newEvents);
+    while (true) {
+      CalendarSnapshot previous = current.get();
+      long version = previous == null ? 0 : previous.getVersion();
+      // Keep versions increasing across publishes so anything keyed by version stays valid.
+      if (current.compareAndSet(previous, contents.withVersion(version + 1))) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Books {@code event}.
+   */
+  public CalendarSnapshot add(Event event) {
+    return update(Collections.singleton(event), Collections.emptySet());
+  }
+
+  /**
+   * Cancels an event equal to {@code event}, if there is one.
+   */
+  public CalendarSnapshot remove(Event event) {
+    return update(Collections.emptySet(), Collections.singleton(event));
+  }
+
+  /**
+   * Books {@code added} and cancels {@code removed} as one change. Returns the snapshot that
+   * contains the change.
+   */
+  public CalendarSnapshot update(Collection<Event> added, Collection<Event> removed) {
+    while (true) {
+      CalendarSnapshot previous = current.get();
+      CalendarSnapshot next = previous.with(added, removed);
+      if (current.compareAndSet(previous, next)) {
+        return next;
+      }
+    }
+  }
+}
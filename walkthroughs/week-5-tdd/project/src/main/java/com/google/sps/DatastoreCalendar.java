@@ -0,0 +1,642 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.NamespaceManager;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A calendar stored in Datastore, one day at a time. Every event is stored once as an
+ * {@code Event} entity. Next to it, every attendee has one {@code Busy} entity per day that lists
+ * when they are busy. The busy entities are kept in sync in the same transaction as the events, so
+ * a query fetches exactly one entity per requested attendee with a single batch get instead of
+ * reading every event of the day. Each tenant's calendar lives in its own Datastore namespace, so
+ * tenants can neither read nor change each other's events.
+ *
+ * <p>The namespace also keeps the tenant's undated working calendar, the one served from memory
+ * by {@code TenantCalendars}, and its groups, so a tenant that is evicted from memory can be
+ * loaded again as it was. The working calendar is written in chunks of events, and a pointer
+ * entity names the chunks of the current version, so replacing it never exposes a half-written
+ * calendar and reading it takes one batch get by key.
+ */
+public final class DatastoreCalendar {
+  static final String EVENT_KIND = "Event";
+  static final String BUSY_KIND = "Busy";
+  static final String CALENDAR_KIND = "Calendar";
+  static final String CHUNK_KIND = "CalendarChunk";
+  static final String GROUP_KIND = "Group";
+
+  // Events per chunk of the working calendar. Keeps each chunk well under the 1 MB entity limit.
+  private static final int CHUNK_EVENTS = 500;
+  // One batch put or delete takes at most 500 entities.
+  private static final int MAX_BATCH = 500;
+  // One batch get reads at most 1000 keys.
+  private static final int MAX_GET = 1000;
+
+  /**
+   * The most attendees an event can have. Adding an event writes its own entity group and one per
+   * attendee in a single cross-group transaction, which Datastore caps at 25 groups.
+   */
+  public static final int MAX_ATTENDEES = 24;
+
+  private static final int MAX_ATTEMPTS = 3;
+
+  private final DatastoreService datastore;
+  private final String namespace;
+
+  /**
+   * Creates a calendar stored in the default namespace of {@code datastore}.
+   */
+  public DatastoreCalendar(DatastoreService datastore) {
+    this(datastore, "");
+  }
+
+  /**
+   * Creates a calendar stored in {@code namespace} of {@code datastore}.
+   */
+  public DatastoreCalendar(DatastoreService datastore, String namespace) {
+    NamespaceManager.validateNamespace(namespace);
+    this.datastore = datastore;
+    this.namespace = namespace;
+  }
+
+  /**
+   * Returns the calendar of {@code tenant} stored in the application's Datastore. The default
+   * tenant uses the default namespace, so calendars stored before there were tenants stay its.
+   *
+   * @throws IllegalArgumentException if {@code tenant} isn't a valid tenant name.
+   */
+  public static DatastoreCalendar forTenant(String tenant) {
+    String name = TenantCalendars.checkName(tenant);
+    return new DatastoreCalendar(DatastoreServiceFactory.getDatastoreService(),
+        TenantCalendars.DEFAULT_TENANT.equals(name) ? "" : name);
+  }
+
+  /**
+   * Stores {@code event} on {@code day} and marks its attendees busy.
+   *
+   * @return The id of the stored event, for removing it later.
+   */
+  public long addEvent(LocalDate day, Event event) {
+    if (event.getAttendees().size() > MAX_ATTENDEES) {
+      throw new IllegalArgumentException(
+          "Events can have at most " + MAX_ATTENDEES + " attendees");
+    }
+
+    String previousNamespace = enterNamespace();
+    try {
+      return addEventInNamespace(day, event);
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  private long addEventInNamespace(LocalDate day, Event event) {
+    // Allocate the id up front so a retried transaction writes the same event.
+    Key eventKey = datastore.allocateIds(EVENT_KIND, 1).getStart();
+    Entity eventEntity = new Entity(eventKey);
+    eventEntity.setProperty("day", day.toString());
+    eventEntity.setProperty("title", event.getTitle());
+    eventEntity.setUnindexedProperty("start", (long) event.getWhen().start());
+    eventEntity.setUnindexedProperty("duration", (long) event.getWhen().duration());
+    eventEntity.setUnindexedProperty("attendees", new ArrayList<>(event.getAttendees()));
+
+    for (int attempt = 1; ; attempt++) {
+      Transaction transaction = beginTransaction();
+      try {
+        List<Entity> changed = new ArrayList<>();
+        changed.add(eventEntity);
+        Map<Key, Entity> busy = datastore.get(transaction, busyKeys(day, event.getAttendees()));
+        for (String attendee : event.getAttendees()) {
+          Key busyKey = busyKey(day, attendee);
+          Entity busyEntity = busy.containsKey(busyKey) ? busy.get(busyKey) : newBusy(busyKey);
+          addInterval(busyEntity, eventKey.getId(), event.getWhen());
+          changed.add(busyEntity);
+        }
+        datastore.put(transaction, changed);
+        transaction.commit();
+        return eventKey.getId();
+      } catch (ConcurrentModificationException e) {
+        if (attempt == MAX_ATTEMPTS) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes the event with id {@code eventId} and frees its attendees.
+   *
+   * @return true if the event existed.
+   */
+  public boolean removeEvent(long eventId) {
+    String previousNamespace = enterNamespace();
+    try {
+      return removeEventInNamespace(eventId);
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  private boolean removeEventInNamespace(long eventId) {
+    Key eventKey = KeyFactory.createKey(EVENT_KIND, eventId);
+    for (int attempt = 1; ; attempt++) {
+      Transaction transaction = beginTransaction();
+      try {
+        Entity eventEntity;
+        try {
+          eventEntity = datastore.get(transaction, eventKey);
+        } catch (EntityNotFoundException e) {
+          return false;
+        }
+
+        LocalDate day = LocalDate.parse((String) eventEntity.getProperty("day"));
+        List<Entity> changed = new ArrayList<>();
+        List<Key> deleted = new ArrayList<>();
+        deleted.add(eventKey);
+        for (Entity busyEntity :
+            datastore.get(transaction, busyKeys(day, getAttendees(eventEntity))).values()) {
+          removeInterval(busyEntity, eventId);
+          if (getLongs(busyEntity, "events").isEmpty()) {
+            deleted.add(busyEntity.getKey());
+          } else {
+            changed.add(busyEntity);
+          }
+        }
+        datastore.put(transaction, changed);
+        datastore.delete(transaction, deleted);
+        transaction.commit();
+        return true;
+      } catch (ConcurrentModificationException e) {
+        if (attempt == MAX_ATTEMPTS) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns every event on {@code day} sorted by start time.
+   */
+  public List<Event> getEvents(LocalDate day) {
+    String previousNamespace = enterNamespace();
+    try {
+      Query query = new Query(EVENT_KIND)
+          .setFilter(new FilterPredicate("day", FilterOperator.EQUAL, day.toString()));
+
+      List<Event> events = new ArrayList<>();
+      FetchOptions options = FetchOptions.Builder.withChunkSize(500);
+      for (Entity entity : datastore.prepare(query).asIterable(options)) {
+        int start = ((Long) entity.getProperty("start")).intValue();
+        int duration = ((Long) entity.getProperty("duration")).intValue();
+        events.add(new Event((String) entity.getProperty("title"),
+            TimeRange.fromStartDuration(start, duration), getAttendees(entity)));
+      }
+      Collections.sort(events, CalendarSnapshot.ORDER_BY_START);
+      return events;
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  /**
+   * Returns when {@code attendees} are busy on {@code day}, as one event per busy interval
+   * attended by just that attendee. Reads one entity per attendee in a single batch get.
+   */
+  public List<Event> getBusyEvents(LocalDate day, Collection<String> attendees) {
+    String previousNamespace = enterNamespace();
+    try {
+      List<Event> events = new ArrayList<>();
+      for (Entity busyEntity : datastore.get(busyKeys(day, attendees)).values()) {
+        Collection<String> attendee =
+            Collections.singleton((String) busyEntity.getProperty("attendee"));
+        List<Long> starts = getLongs(busyEntity, "starts");
+        List<Long> ends = getLongs(busyEntity, "ends");
+        for (int i = 0; i < starts.size(); i++) {
+          events.add(new Event("Busy", TimeRange.fromStartEnd(
+              starts.get(i).intValue(), ends.get(i).intValue(), false), attendee));
+        }
+      }
+      return events;
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  /**
+   * Returns the times on {@code day} that work for {@code request}, reading only the busy time of
+   * the people it asks about. Group names are not expanded.
+   */
+  public Collection<TimeRange> query(LocalDate day, MeetingRequest request) {
+    Set<String> people = new LinkedHashSet<>(request.getAttendees());
+    people.addAll(request.getOptionalAttendees());
+    CalendarSnapshot snapshot = CalendarSnapshot.of(getBusyEvents(day, people));
+    return new FindMeetingQuery().query(snapshot, request);
+  }
+
+  /**
+   * Returns how many of {@code attendees} are free in each {@code bucketMinutes}-long bucket of
+   * the {@code days} days starting at {@code from}. Day {@code d} starts at bucket
+   * {@code d * AvailabilityHeatmap.bucketsPerDay(bucketMinutes)}. Reads one busy entity per
+   * attendee and day, in batch gets of a few attendees' whole range at a time, so only those
+   * attendees' bitmaps are held at once.
+   */
+  public AvailabilityHeatmap getHeatmap(
+      LocalDate from, int days, Collection<String> attendees, int bucketMinutes) {
+    if (days <= 0 || days > MAX_GET) {
+      throw new IllegalArgumentException("days must be between 1 and " + MAX_GET);
+    }
+    int buckets = days * AvailabilityHeatmap.bucketsPerDay(bucketMinutes);
+    int words = AvailabilityHeatmap.wordsFor(buckets);
+    AvailabilityHeatmap heatmap = new AvailabilityHeatmap(buckets);
+
+    String previousNamespace = enterNamespace();
+    try {
+      List<String> batch = new ArrayList<>();
+      for (String attendee : new LinkedHashSet<>(attendees)) {
+        batch.add(attendee);
+        if ((batch.size() + 1) * days > MAX_GET) {
+          addBusyBuckets(heatmap, words, from, days, batch, bucketMinutes);
+          batch.clear();
+        }
+      }
+      if (!batch.isEmpty()) {
+        addBusyBuckets(heatmap, words, from, days, batch, bucketMinutes);
+      }
+      return heatmap;
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  private void addBusyBuckets(AvailabilityHeatmap heatmap, int words, LocalDate from, int days,
+      List<String> attendees, int bucketMinutes) {
+    List<Key> keys = new ArrayList<>();
+    for (String attendee : attendees) {
+      for (int day = 0; day < days; day++) {
+        keys.add(busyKey(from.plusDays(day), attendee));
+      }
+    }
+    Map<Key, Entity> busyEntities = datastore.get(keys);
+
+    int key = 0;
+    for (int i = 0; i < attendees.size(); i++) {
+      long[] busy = new long[words];
+      for (int day = 0; day < days; day++, key++) {
+        Entity busyEntity = busyEntities.get(keys.get(key));
+        if (busyEntity == null) {
+          continue;
+        }
+        List<Long> starts = getLongs(busyEntity, "starts");
+        List<Long> ends = getLongs(busyEntity, "ends");
+        for (int interval = 0; interval < starts.size(); interval++) {
+          AvailabilityHeatmap.setBusy(busy, day, TimeRange.fromStartEnd(
+              starts.get(interval).intValue(), ends.get(interval).intValue(), false),
+              bucketMinutes);
+        }
+      }
+      heatmap.add(busy);
+    }
+  }
+
+  /**
+   * Switches this thread to the calendar's namespace. Keys and queries pick up the namespace
+   * when they are created, so switch before creating any.
+   *
+   * @return The namespace to switch back to afterwards.
+   */
+  private String enterNamespace() {
+    String previous = NamespaceManager.get();
+    NamespaceManager.set(namespace);
+    return previous;
+  }
+
+  /**
+   * Returns the working calendar last saved with {@link #saveCalendar}, or null if none has been
+   * saved.
+   */
+  public List<Event> loadCalendar() {
+    String previousNamespace = enterNamespace();
+    try {
+      Entity pointer;
+      try {
+        pointer = datastore.get(calendarKey());
+      } catch (EntityNotFoundException e) {
+        return null;
+      }
+
+      List<Event> events = new ArrayList<>();
+      List<Key> keys = chunkKeys(pointer);
+      Map<Key, Entity> chunks = datastore.get(keys);
+      for (Key key : keys) {
+        Entity chunk = chunks.get(key);
+        if (chunk == null) {
+          throw new IllegalStateException("Missing calendar chunk " + key);
+        }
+        readChunk(chunk, events);
+      }
+      return events;
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  /**
+   * Replaces the working calendar with {@code events}. The new chunks are written first and the
+   * pointer is switched to them in a transaction, so readers see either the old calendar or the
+   * new one; the old chunks are deleted afterwards.
+   */
+  public void saveCalendar(Collection<Event> events) {
+    String previousNamespace = enterNamespace();
+    try {
+      long generation = datastore.allocateIds(CHUNK_KIND, 1).getStart().getId();
+      // A chunk can come close to the size limit of one call, so each is put on its own.
+      List<Event> pending = new ArrayList<>(CHUNK_EVENTS);
+      int chunkCount = 0;
+      for (Event event : events) {
+        pending.add(event);
+        if (pending.size() == CHUNK_EVENTS) {
+          datastore.put(newChunk(generation, chunkCount++, pending));
+          pending.clear();
+        }
+      }
+      if (!pending.isEmpty()) {
+        datastore.put(newChunk(generation, chunkCount++, pending));
+      }
+
+      Entity replaced = null;
+      for (int attempt = 1; ; attempt++) {
+        Transaction transaction = datastore.beginTransaction();
+        try {
+          try {
+            replaced = datastore.get(transaction, calendarKey());
+          } catch (EntityNotFoundException e) {
+            replaced = null;
+          }
+          Entity pointer = new Entity(calendarKey());
+          pointer.setUnindexedProperty("generation", generation);
+          pointer.setUnindexedProperty("chunks", (long) chunkCount);
+          datastore.put(transaction, pointer);
+          transaction.commit();
+          break;
+        } catch (ConcurrentModificationException e) {
+          if (attempt == MAX_ATTEMPTS) {
+            throw e;
+          }
+        } finally {
+          if (transaction.isActive()) {
+            transaction.rollback();
+          }
+        }
+      }
+
+      if (replaced != null) {
+        deleteAll(chunkKeys(replaced));
+      }
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  /**
+   * Returns every saved group and its direct members.
+   */
+  public Map<String, List<String>> loadGroups() {
+    String previousNamespace = enterNamespace();
+    try {
+      // An ancestor query, so a group saved a moment ago is always included.
+      Query query = new Query(GROUP_KIND).setAncestor(groupsKey());
+      Map<String, List<String>> groups = new LinkedHashMap<>();
+      for (Entity entity : datastore.prepare(query).asIterable()) {
+        groups.put(entity.getKey().getName(), getStrings(entity, "members"));
+      }
+      return groups;
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  /**
+   * Saves the members of {@code group}, replacing any saved before.
+   */
+  public void saveGroup(String group, Collection<String> members) {
+    String previousNamespace = enterNamespace();
+    try {
+      Entity entity = new Entity(GROUP_KIND, group, groupsKey());
+      entity.setUnindexedProperty("members", new ArrayList<>(members));
+      datastore.put(entity);
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  /**
+   * Deletes the saved group {@code group}, if there is one.
+   */
+  public void removeGroup(String group) {
+    String previousNamespace = enterNamespace();
+    try {
+      datastore.delete(KeyFactory.createKey(groupsKey(), GROUP_KIND, group));
+    } finally {
+      NamespaceManager.set(previousNamespace);
+    }
+  }
+
+  private static Key calendarKey() {
+    return KeyFactory.createKey(CALENDAR_KIND, "events");
+  }
+
+  private static Key groupsKey() {
+    return KeyFactory.createKey(CALENDAR_KIND, "groups");
+  }
+
+  private static List<Key> chunkKeys(Entity pointer) {
+    long generation = (Long) pointer.getProperty("generation");
+    long count = (Long) pointer.getProperty("chunks");
+    List<Key> keys = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      keys.add(KeyFactory.createKey(CHUNK_KIND, generation + "/" + i));
+    }
+    return keys;
+  }
+
+  /**
+   * Builds one chunk of the working calendar. Events are stored as parallel lists; each event's
+   * attendees follow each other in one flat list, with their count in another.
+   */
+  private static Entity newChunk(long generation, int index, List<Event> events) {
+    List<Text> titles = new ArrayList<>();
+    List<Long> starts = new ArrayList<>();
+    List<Long> durations = new ArrayList<>();
+    List<Long> attendeeCounts = new ArrayList<>();
+    List<String> attendees = new ArrayList<>();
+    for (Event event : events) {
+      titles.add(new Text(event.getTitle()));
+      starts.add((long) event.getWhen().start());
+      durations.add((long) event.getWhen().duration());
+      attendeeCounts.add((long) event.getAttendees().size());
+      attendees.addAll(event.getAttendees());
+    }
+
+    Entity chunk = new Entity(CHUNK_KIND, generation + "/" + index);
+    chunk.setUnindexedProperty("titles", titles);
+    chunk.setUnindexedProperty("starts", starts);
+    chunk.setUnindexedProperty("durations", durations);
+    chunk.setUnindexedProperty("attendeeCounts", attendeeCounts);
+    chunk.setUnindexedProperty("attendees", attendees);
+    return chunk;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void readChunk(Entity chunk, List<Event> events) {
+    Collection<Text> titles = (Collection<Text>) chunk.getProperty("titles");
+    List<Long> starts = getLongs(chunk, "starts");
+    List<Long> durations = getLongs(chunk, "durations");
+    List<Long> attendeeCounts = getLongs(chunk, "attendeeCounts");
+    List<String> attendees = getStrings(chunk, "attendees");
+
+    int i = 0;
+    int nextAttendee = 0;
+    for (Text title : titles) {
+      int count = attendeeCounts.get(i).intValue();
+      events.add(new Event(title.getValue(),
+          TimeRange.fromStartDuration(starts.get(i).intValue(), durations.get(i).intValue()),
+          attendees.subList(nextAttendee, nextAttendee + count)));
+      nextAttendee += count;
+      i++;
+    }
+  }
+
+  private void deleteAll(List<Key> keys) {
+    for (int i = 0; i < keys.size(); i += MAX_BATCH) {
+      datastore.delete(keys.subList(i, Math.min(i + MAX_BATCH, keys.size())));
+    }
+  }
+
+  private Transaction beginTransaction() {
+    return datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+  }
+
+  private static Key busyKey(LocalDate day, String attendee) {
+    return KeyFactory.createKey(BUSY_KIND, day + "/" + attendee);
+  }
+
+  private static List<Key> busyKeys(LocalDate day, Collection<String> attendees) {
+    List<Key> keys = new ArrayList<>();
+    for (String attendee : attendees) {
+      keys.add(busyKey(day, attendee));
+    }
+    return keys;
+  }
+
+  private static Entity newBusy(Key busyKey) {
+    String name = busyKey.getName();
+    Entity busyEntity = new Entity(busyKey);
+    busyEntity.setProperty("day", name.substring(0, name.indexOf('/')));
+    busyEntity.setProperty("attendee", name.substring(name.indexOf('/') + 1));
+    return busyEntity;
+  }
+
+  /**
+   * Inserts an interval into a busy entity, keeping the intervals sorted by start time. The
+   * intervals are stored as three parallel lists: starts, ends, and the events they belong to.
+   */
+  private static void addInterval(Entity busyEntity, long eventId, TimeRange when) {
+    List<Long> starts = getLongs(busyEntity, "starts");
+    List<Long> ends = getLongs(busyEntity, "ends");
+    List<Long> events = getLongs(busyEntity, "events");
+
+    int position = 0;
+    while (position < starts.size() && starts.get(position) <= when.start()) {
+      position++;
+    }
+    starts.add(position, (long) when.start());
+    ends.add(position, (long) when.end());
+    events.add(position, eventId);
+    setIntervals(busyEntity, starts, ends, events);
+  }
+
+  private static void removeInterval(Entity busyEntity, long eventId) {
+    List<Long> starts = getLongs(busyEntity, "starts");
+    List<Long> ends = getLongs(busyEntity, "ends");
+    List<Long> events = getLongs(busyEntity, "events");
+
+    int position = events.indexOf(eventId);
+    if (position >= 0) {
+      starts.remove(position);
+      ends.remove(position);
+      events.remove(position);
+    }
+    setIntervals(busyEntity, starts, ends, events);
+  }
+
+  private static void setIntervals(
+      Entity busyEntity, List<Long> starts, List<Long> ends, List<Long> events) {
+    busyEntity.setUnindexedProperty("starts", starts);
+    busyEntity.setUnindexedProperty("ends", ends);
+    busyEntity.setUnindexedProperty("events", events);
+  }
+
+  /**
+   * Returns a mutable copy of a list property. Datastore stores empty lists as null.
+   */
+  @SuppressWarnings("unchecked")
+  private static List<Long> getLongs(Entity entity, String property) {
+    Collection<Long> values = (Collection<Long>) entity.getProperty(property);
+    return values == null ? new ArrayList<>() : new ArrayList<>(values);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<String> getStrings(Entity entity, String property) {
+    Collection<String> values = (Collection<String>) entity.getProperty(property);
+    return values == null ? new ArrayList<>() : new ArrayList<>(values);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Collection<String> getAttendees(Entity eventEntity) {
+    Collection<String> attendees = (Collection<String>) eventEntity.getProperty("attendees");
+    return attendees == null ? Collections.emptyList() : attendees;
+  }
+}
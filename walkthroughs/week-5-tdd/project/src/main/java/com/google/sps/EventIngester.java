@@ -0,0 +1,565 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads events from large CSV or ICS exports. The file is split into byte ranges that are parsed
+ * in parallel, one range per task, and the events are returned in file order.
+ *
+ * <p>CSV rows look like {@code title,start,end,attendee;attendee}, where {@code start} and
+ * {@code end} are either {@code HH:mm} or minutes since midnight. ICS files are read one
+ * {@code VEVENT} at a time using its {@code SUMMARY}, {@code DTSTART}, {@code DTEND} (or
+ * {@code DURATION}) and {@code ATTENDEE} properties.
+ */
+public final class EventIngester {
+  /** The file formats the ingester understands. */
+  public enum Format {
+    CSV,
+    ICS;
+
+    /**
+     * Returns the format matching a file name or format name such as {@code "ics"}.
+     */
+    public static Format fromName(String name) {
+      String lower = name.toLowerCase();
+      return lower.equals("ics") || lower.endsWith(".ics") ? ICS : CSV;
+    }
+  }
+
+  private static final long DEFAULT_CHUNK_BYTES = 8L * 1024 * 1024;
+
+  private final int parallelism;
+  private final long chunkBytes;
+
+  /**
+   * Creates an ingester that uses one thread per core and 8MB chunks.
+   */
+  public EventIngester() {
+    this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_BYTES);
+  }
+
+  /**
+   * Creates an ingester.
+   *
+   * @param parallelism The number of threads parsing chunks. Must be positive.
+   * @param chunkBytes The approximate size of each chunk in bytes. Must be positive.
+   */
+  public EventIngester(int parallelism, long chunkBytes) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be positive");
+    }
+
+    if (chunkBytes <= 0) {
+      throw new IllegalArgumentException("chunkBytes must be positive");
+    }
+
+    this.parallelism = parallelism;
+    this.chunkBytes = chunkBytes;
+  }
+
+  /**
+   * Parses every event in {@code file}. Records that can't be parsed are skipped and counted in
+   * the result.
+   */
+  public IngestResult ingest(Path file, Format format) throws IOException {
+    long startNanos = System.nanoTime();
+    long size = Files.size(file);
+    int chunkCount = size == 0 ? 1 : (int) ((size - 1) / chunkBytes + 1);
+
+    // Attendee names repeat on almost every row, so share one String per name across chunks.
+    ConcurrentMap<String, String> names = new ConcurrentHashMap<>();
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, chunkCount));
+    List<Future<ChunkResult>> futures = new ArrayList<>();
+    try {
+      for (int i = 0; i < chunkCount; i++) {
+        long begin = i * chunkBytes;
+        long end = Math.min(size, begin + chunkBytes);
+        futures.add(executor.submit(() -> parseChunk(file, format, begin, end, names)));
+      }
+
+      List<Event> events = new ArrayList<>();
+      int skipped = 0;
+      for (Future<ChunkResult> future : futures) {
+        ChunkResult chunk = future.get();
+        events.addAll(chunk.events);
+        skipped += chunk.skipped;
+      }
+      return new IngestResult(events, skipped, size, chunkCount, System.nanoTime() - startNanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while ingesting " + file, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Failed to ingest " + file, e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Parses the records that start inside {@code [begin, end)}. A record that starts inside the
+   * range but runs past {@code end} is read to completion; the next chunk skips it.
+   */
+  private static ChunkResult parseChunk(Path file, Format format, long begin, long end,
+      ConcurrentMap<String, String> names) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      // Start one byte early so a chunk that begins exactly on a line start doesn't lose it.
+      long position = Math.max(0, begin - 1);
+      channel.position(position);
+      LineReader reader = new LineReader(Channels.newInputStream(channel), position);
+      if (begin > 0) {
+        reader.readLine(); // Finish the line owned by the previous chunk.
+      }
+
+      ChunkResult result = new ChunkResult();
+      if (format == Format.CSV) {
+        parseCsv(reader, end, names, result);
+      } else {
+        parseIcs(reader, end, names, result);
+      }
+      return result;
+    }
+  }
+
+  private static void parseCsv(LineReader reader, long end, ConcurrentMap<String, String> names,
+      ChunkResult result) throws IOException {
+    while (reader.offset() < end) {
+      long lineStart = reader.offset();
+      String line = reader.readLine();
+      if (line == null) {
+        return;
+      }
+
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+
+      List<String> fields = splitCsv(line);
+      if (lineStart == 0 && fields.get(0).trim().equalsIgnoreCase("title")) {
+        continue; // Header row.
+      }
+
+      try {
+        if (fields.size() < 3) {
+          throw new IllegalArgumentException("expected title,start,end[,attendees]");
+        }
+
+        List<String> attendees = new ArrayList<>();
+        if (fields.size() > 3) {
+          for (String attendee : fields.get(3).split(";")) {
+            addAttendee(attendees, attendee, names);
+          }
+        }
+
+        int start = parseMinutes(fields.get(1).trim());
+        int finish = parseMinutes(fields.get(2).trim());
+        result.events.add(
+            new Event(fields.get(0), TimeRange.fromStartEnd(start, finish, false), attendees));
+      } catch (IllegalArgumentException e) {
+        result.skipped++;
+      }
+    }
+  }
+
+  private static void parseIcs(LineReader reader, long end, ConcurrentMap<String, String> names,
+      ChunkResult result) throws IOException {
+    List<String> properties = null;
+    String pending = null;
+
+    while (true) {
+      long lineStart = reader.offset();
+      String line = reader.readLine();
+
+      // Lines starting with whitespace continue the previous property (RFC 5545 folding).
+      if (line != null && pending != null && !line.isEmpty()
+          && (line.charAt(0) == ' ' || line.charAt(0) == '\t')) {
+        pending += line.substring(1);
+        continue;
+      }
+
+      if (pending != null) {
+        if (pending.equals("BEGIN:VEVENT")) {
+          properties = new ArrayList<>();
+        } else if (properties != null && pending.equals("END:VEVENT")) {
+          addIcsEvent(properties, names, result);
+          properties = null;
+        } else if (properties != null) {
+          properties.add(pending);
+        }
+        pending = null;
+      }
+
+      if (line == null) {
+        return;
+      }
+
+      // Only events that begin inside this chunk belong to it.
+      if (properties == null && lineStart >= end) {
+        return;
+      }
+      pending = line;
+    }
+  }
+
+  private static void addIcsEvent(List<String> properties, ConcurrentMap<String, String> names,
+      ChunkResult result) {
+    String title = "";
+    String dtStart = null;
+    String dtEnd = null;
+    String duration = null;
+    List<String> attendees = new ArrayList<>();
+
+    for (String property : properties) {
+      int colon = property.indexOf(':');
+      if (colon < 0) {
+        continue;
+      }
+      String head = property.substring(0, colon);
+      String value = property.substring(colon + 1);
+      int semicolon = head.indexOf(';');
+      String name = (semicolon < 0 ? head : head.substring(0, semicolon)).toUpperCase();
+
+      switch (name) {
+        case "SUMMARY":
+          title = value;
+          break;
+        case "DTSTART":
+          dtStart = value;
+          break;
+        case "DTEND":
+          dtEnd = value;
+          break;
+        case "DURATION":
+          duration = value;
+          break;
+        case "ATTENDEE":
+          addAttendee(attendees, attendeeName(head, value), names);
+          break;
+        default:
+          break;
+      }
+    }
+
+    try {
+      if (dtStart == null) {
+        throw new IllegalArgumentException("DTSTART is required");
+      }
+
+      int start = parseIcsTime(dtStart);
+      int finish;
+      if (dtEnd != null) {
+        // An event that ends on a later date runs to the end of the day.
+        finish = icsDate(dtEnd).compareTo(icsDate(dtStart)) > 0
+            ? TimeRange.WHOLE_DAY.end()
+            : parseIcsTime(dtEnd);
+      } else if (duration != null) {
+        finish = Math.min(TimeRange.WHOLE_DAY.end(), start + parseIcsDuration(duration));
+      } else {
+        finish = start;
+      }
+      result.events.add(new Event(title, TimeRange.fromStartEnd(start, finish, false), attendees));
+    } catch (IllegalArgumentException e) {
+      result.skipped++;
+    }
+  }
+
+  /**
+   * Prefers the {@code CN} parameter of an ATTENDEE property and falls back to its address.
+   */
+  private static String attendeeName(String head, String value) {
+    for (String parameter : head.split(";")) {
+      if (parameter.regionMatches(true, 0, "CN=", 0, 3)) {
+        return unquote(parameter.substring(3));
+      }
+    }
+    return value.regionMatches(true, 0, "mailto:", 0, 7) ? value.substring(7) : value;
+  }
+
+  private static void addAttendee(List<String> attendees, String attendee,
+      ConcurrentMap<String, String> names) {
+    String trimmed = unquote(attendee.trim());
+    if (trimmed.isEmpty()) {
+      return;
+    }
+    String shared = names.putIfAbsent(trimmed, trimmed);
+    attendees.add(shared == null ? trimmed : shared);
+  }
+
+  private static String unquote(String value) {
+    if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+      return value.substring(1, value.length() - 1);
+    }
+    return value;
+  }
+
+  /**
+   * Splits one CSV row, honouring double-quoted fields. Rows can't contain line breaks.
+   */
+  private static List<String> splitCsv(String line) {
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quoted) {
+        if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          field.append('"');
+          i++;
+        } else if (c == '"') {
+          quoted = false;
+        } else {
+          field.append(c);
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else {
+        field.append(c);
+      }
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+
+  /**
+   * Parses {@code HH:mm} or a plain number of minutes. {@code 24:00} is allowed as an end time.
+   */
+  private static int parseMinutes(String value) {
+    int minutes;
+    int colon = value.indexOf(':');
+    try {
+      if (colon < 0) {
+        minutes = Integer.parseInt(value);
+      } else {
+        minutes = Integer.parseInt(value.substring(0, colon)) * 60
+            + Integer.parseInt(value.substring(colon + 1));
+      }
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid time: " + value);
+    }
+
+    if (minutes < TimeRange.START_OF_DAY || minutes > TimeRange.WHOLE_DAY.end()) {
+      throw new IllegalArgumentException("Time is outside of the day: " + value);
+    }
+    return minutes;
+  }
+
+  private static String icsDate(String value) {
+    int t = value.indexOf('T');
+    return t < 0 ? value : value.substring(0, t);
+  }
+
+  /**
+   * Returns the minutes since midnight of an ICS date-time such as {@code 20200101T083000Z}. A
+   * date without a time is the start of the day.
+   */
+  private static int parseIcsTime(String value) {
+    int t = value.indexOf('T');
+    if (t < 0) {
+      return TimeRange.START_OF_DAY;
+    }
+
+    if (value.length() < t + 5) {
+      throw new IllegalArgumentException("Invalid date-time: " + value);
+    }
+
+    try {
+      int hours = Integer.parseInt(value.substring(t + 1, t + 3));
+      int minutes = Integer.parseInt(value.substring(t + 3, t + 5));
+      return TimeRange.getTimeInMinutes(hours, minutes);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid date-time: " + value);
+    }
+  }
+
+  /**
+   * Parses the day and time parts of an ICS duration such as {@code PT1H30M} into minutes.
+   */
+  private static int parseIcsDuration(String value) {
+    int minutes = 0;
+    int number = 0;
+    for (char c : value.toUpperCase().toCharArray()) {
+      if (Character.isDigit(c)) {
+        number = number * 10 + (c - '0');
+      } else {
+        if (c == 'W') {
+          minutes += number * 7 * 24 * 60;
+        } else if (c == 'D') {
+          minutes += number * 24 * 60;
+        } else if (c == 'H') {
+          minutes += number * 60;
+        } else if (c == 'M') {
+          minutes += number;
+        }
+        number = 0;
+      }
+    }
+    return minutes;
+  }
+
+  /** Events parsed from one chunk. */
+  private static final class ChunkResult {
+    private final List<Event> events = new ArrayList<>();
+    private int skipped;
+  }
+
+  /**
+   * Reads UTF-8 lines while tracking the byte offset of the next line, which a
+   * {@code BufferedReader} can't do.
+   */
+  private static final class LineReader {
+    private final InputStream in;
+    private final byte[] buffer = new byte[64 * 1024];
+    private int position;
+    private int limit;
+    private long offset;
+    private byte[] line = new byte[256];
+
+    LineReader(InputStream in, long offset) {
+      this.in = in;
+      this.offset = offset;
+    }
+
+    /**
+     * Returns the file offset of the next unread byte.
+     */
+    long offset() {
+      return offset;
+    }
+
+    /**
+     * Returns the next line without its line terminator, or {@code null} at the end of the file.
+     */
+    String readLine() throws IOException {
+      int length = 0;
+      boolean read = false;
+
+      while (true) {
+        if (position == limit) {
+          limit = in.read(buffer);
+          position = 0;
+          if (limit <= 0) {
+            limit = 0;
+            return read ? toString(length) : null;
+          }
+        }
+
+        read = true;
+        byte b = buffer[position++];
+        offset++;
+        if (b == '\n') {
+          return toString(length);
+        }
+
+        if (length == line.length) {
+          byte[] larger = new byte[line.length * 2];
+          System.arraycopy(line, 0, larger, 0, length);
+          line = larger;
+        }
+        line[length++] = b;
+      }
+    }
+
+    private String toString(int length) {
+      if (length > 0 && line[length - 1] == '\r') {
+        length--;
+      }
+      return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+  }
+
+  /** The events read from one file together with throughput statistics. */
+  public static final class IngestResult {
+    private final List<Event> events;
+    private final int skipped;
+    private final long bytes;
+    private final int chunks;
+    private final long elapsedNanos;
+
+    IngestResult(List<Event> events, int skipped, long bytes, int chunks, long elapsedNanos) {
+      this.events = Collections.unmodifiableList(events);
+      this.skipped = skipped;
+      this.bytes = bytes;
+      this.chunks = chunks;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns the parsed events in file order.
+     */
+    public List<Event> getEvents() {
+      return events;
+    }
+
+    /**
+     * Returns the number of records that couldn't be parsed.
+     */
+    public int getSkipped() {
+      return skipped;
+    }
+
+    /**
+     * Returns the size of the file in bytes.
+     */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * Returns the number of chunks the file was split into.
+     */
+    public int getChunks() {
+      return chunks;
+    }
+
+    /**
+     * Returns the wall-clock time spent ingesting in nanoseconds.
+     */
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    /**
+     * Returns how many events were parsed per second of wall-clock time.
+     */
+    public double getEventsPerSecond() {
+      return elapsedNanos == 0 ? 0 : events.size() * 1e9 / elapsedNanos;
+    }
+  }
+}
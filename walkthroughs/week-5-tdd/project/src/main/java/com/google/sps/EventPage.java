@@ -0,0 +1,302 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * One page of the events that fall in a time window, plus the cursor to fetch the next page with.
+ * Events are listed by start time, and events with the same start by a fingerprint of their
+ * contents, so their order doesn't depend on where they sit in the calendar. A cursor names the
+ * start time and fingerprint of the last event returned, plus how many identical events before it
+ * were passed. Paging keeps its place when events are added or removed in between: every event
+ * that was in the window throughout is listed exactly once, and one that is added behind the
+ * cursor is simply not listed. Only removing one of several identical events can shift the rest.
+ */
+public final class EventPage {
+  /** The order events are paged in: by start time, then by {@link #fingerprint}. */
+  static final Comparator<Event> PAGE_ORDER = Comparator
+      .comparingInt((Event event) -> event.getWhen().start())
+      .thenComparingLong(EventPage::fingerprint);
+
+  // 64-bit FNV-1a, for fingerprints.
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final List<Event> events;
+  private final String nextCursor;
+
+  private EventPage(List<Event> events, String nextCursor) {
+    this.events = Collections.unmodifiableList(events);
+    this.nextCursor = nextCursor;
+  }
+
+  /**
+   * Returns the events on this page in {@link #PAGE_ORDER}.
+   */
+  public List<Event> getEvents() {
+    return events;
+  }
+
+  /**
+   * Returns the cursor for the next page, or null if this is the last page.
+   */
+  public String getNextCursor() {
+    return nextCursor;
+  }
+
+  /**
+   * Returns true if {@code event} should be listed for {@code window}: it overlaps the window, or
+   * it has no duration and happens inside it.
+   */
+  static boolean inWindow(Event event, TimeRange window) {
+    TimeRange when = event.getWhen();
+    return when.start() < window.end()
+        && (when.end() > window.start() || when.start() >= window.start());
+  }
+
+  /**
+   * Returns a 64-bit hash of everything that makes up {@code event}. Equal events have equal
+   * fingerprints, and different events almost never do.
+   */
+  static long fingerprint(Event event) {
+    List<String> attendees = new ArrayList<>(event.getAttendees());
+    Collections.sort(attendees);
+    long hash = mix(FNV_OFFSET, event.getTitle());
+    hash = (hash ^ event.getWhen().start()) * FNV_PRIME;
+    hash = (hash ^ event.getWhen().end()) * FNV_PRIME;
+    for (String attendee : attendees) {
+      // Mix in the length too, so that "ab", "c" and "a", "bc" differ.
+      hash = mix((hash ^ attendee.length()) * FNV_PRIME, attendee);
+    }
+    return hash;
+  }
+
+  private static long mix(long hash, String text) {
+    for (int i = 0; i < text.length(); i++) {
+      hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+    }
+    return hash;
+  }
+
+  /**
+   * Pages through an index of events.
+   *
+   * @param index The events to page through.
+   * @param window The time window to list.
+   * @param cursor The cursor returned with the previous page, or null for the first page.
+   * @param limit The most events to return. Must be positive.
+   */
+  static EventPage of(Index index, TimeRange window, String cursor, int limit) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("limit must be positive");
+    }
+    Cursor parsed = cursor == null ? null : Cursor.parse(cursor);
+
+    // Only events starting less than a tier's longest duration before the window can reach into
+    // it, which bounds where each tier's scan begins.
+    int tierCount = index.tiers.length;
+    int[] positions = new int[tierCount];
+    for (int tier = 0; tier < tierCount; tier++) {
+      int earliestStart =
+          Math.min(window.start(), window.start() - index.maxDurations[tier] + 1);
+      if (parsed != null) {
+        earliestStart = Math.max(earliestStart, parsed.start);
+      }
+      positions[tier] = lowerBound(index.tiers[tier], earliestStart);
+    }
+
+    // Merge the tiers back into page order.
+    List<Event> events = new ArrayList<>();
+    int currentStart = -1;
+    long currentFingerprint = 0;
+    int seenIdentical = 0;
+    Cursor last = null;
+    while (true) {
+      int next = -1;
+      for (int tier = 0; tier < tierCount; tier++) {
+        if (positions[tier] < index.tiers[tier].length && (next < 0
+            || index.order[tier][positions[tier]] < index.order[next][positions[next]])) {
+          next = tier;
+        }
+      }
+      if (next < 0) {
+        break;
+      }
+      long fingerprint = index.fingerprints[next][positions[next]];
+      Event event = index.tiers[next][positions[next]++];
+      int start = event.getWhen().start();
+      if (start >= window.end()) {
+        break;
+      }
+
+      // Count identical events, the only ones the start and fingerprint can't tell apart.
+      if (start != currentStart || fingerprint != currentFingerprint) {
+        currentStart = start;
+        currentFingerprint = fingerprint;
+        seenIdentical = 0;
+      }
+      seenIdentical++;
+      if (parsed != null && parsed.hasPassed(start, fingerprint, seenIdentical)) {
+        continue;
+      }
+      if (!inWindow(event, window)) {
+        continue;
+      }
+      if (events.size() == limit) {
+        // There is at least one more event, so point the cursor just past the last one returned.
+        return new EventPage(events, last.toString());
+      }
+      events.add(event);
+      last = new Cursor(start, fingerprint, seenIdentical);
+    }
+    return new EventPage(events, null);
+  }
+
+  /**
+   * Returns the index of the first event starting at or after {@code start}.
+   */
+  private static int lowerBound(Event[] eventsByStart, int start) {
+    int low = 0;
+    int high = eventsByStart.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (eventsByStart[middle].getWhen().start() < start) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Where the previous page stopped: the last event returned, and how many events identical to it
+   * had been passed, counting that one.
+   */
+  private static final class Cursor {
+    private final int start;
+    private final long fingerprint;
+    private final int seenIdentical;
+
+    private Cursor(int start, long fingerprint, int seenIdentical) {
+      this.start = start;
+      this.fingerprint = fingerprint;
+      this.seenIdentical = seenIdentical;
+    }
+
+    /**
+     * Returns true if the event with the given place in page order was already passed.
+     */
+    private boolean hasPassed(int eventStart, long eventFingerprint, int eventSeenIdentical) {
+      if (eventStart != start) {
+        return eventStart < start;
+      }
+      if (eventFingerprint != fingerprint) {
+        return eventFingerprint < fingerprint;
+      }
+      return eventSeenIdentical <= seenIdentical;
+    }
+
+    @Override
+    public String toString() {
+      return start + ":" + Long.toHexString(fingerprint) + ":" + seenIdentical;
+    }
+
+    private static Cursor parse(String cursor) {
+      String[] parts = cursor.split(":");
+      if (parts.length != 3) {
+        throw new IllegalArgumentException("Malformed cursor: " + cursor);
+      }
+      try {
+        int start = Integer.parseInt(parts[0]);
+        long fingerprint = Long.parseUnsignedLong(parts[1], 16);
+        int seenIdentical = Integer.parseInt(parts[2]);
+        if (seenIdentical < 0) {
+          throw new IllegalArgumentException("Malformed cursor: " + cursor);
+        }
+        return new Cursor(start, fingerprint, seenIdentical);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+      }
+    }
+  }
+
+  /**
+   * Events in page order, split into tiers by duration: tier {@code k} holds the events lasting
+   * less than 2<sup>k</sup> minutes. A window scan of each tier only has to start that tier's
+   * longest duration before the window, so one long event doesn't make every page scan from the
+   * start of the day. Building an index sorts the events once.
+   */
+  static final class Index {
+    private final Event[][] tiers;
+    private final long[][] fingerprints;
+    // Each event's position in page order across all tiers, for merging the tiers back in order.
+    private final int[][] order;
+    private final int[] maxDurations;
+
+    /**
+     * Creates an index of {@code events}.
+     */
+    Index(Event[] events) {
+      // Sort once by PAGE_ORDER, hashing every event only once.
+      long[] eventFingerprints = new long[events.length];
+      Integer[] pageOrder = new Integer[events.length];
+      for (int i = 0; i < events.length; i++) {
+        eventFingerprints[i] = fingerprint(events[i]);
+        pageOrder[i] = i;
+      }
+      Arrays.sort(pageOrder, Comparator
+          .comparingInt((Integer i) -> events[i].getWhen().start())
+          .thenComparingLong(i -> eventFingerprints[i]));
+
+      int tierCount = 0;
+      int[] counts = new int[Integer.SIZE];
+      for (Event event : events) {
+        int tier = tierOf(event);
+        counts[tier]++;
+        tierCount = Math.max(tierCount, tier + 1);
+      }
+
+      tiers = new Event[tierCount][];
+      fingerprints = new long[tierCount][];
+      order = new int[tierCount][];
+      maxDurations = new int[tierCount];
+      for (int tier = 0; tier < tierCount; tier++) {
+        tiers[tier] = new Event[counts[tier]];
+        fingerprints[tier] = new long[counts[tier]];
+        order[tier] = new int[counts[tier]];
+      }
+      int[] filled = new int[tierCount];
+      for (int i = 0; i < pageOrder.length; i++) {
+        Event event = events[pageOrder[i]];
+        int tier = tierOf(event);
+        tiers[tier][filled[tier]] = event;
+        fingerprints[tier][filled[tier]] = eventFingerprints[pageOrder[i]];
+        order[tier][filled[tier]] = i;
+        filled[tier]++;
+        maxDurations[tier] = Math.max(maxDurations[tier], event.getWhen().duration());
+      }
+    }
+
+    private static int tierOf(Event event) {
+      return Integer.SIZE - Integer.numberOfLeadingZeros(event.getWhen().duration());
+    }
+  }
+}
@@ -18,6 +18,92 @@ import java.util.*;
 
 public final class FindMeetingQuery {
 
+  // Used when the caller has no groups, so every attendee is a person.
+  private static final GroupDirectory NO_GROUPS = new GroupDirectory();
+
+  /**
+   * Finds meeting times using a pinned calendar snapshot. Only the events of the requested
+   * attendees are read, and the snapshot can't change while the query runs.
+   */
+  public Collection<TimeRange> query(CalendarSnapshot snapshot, MeetingRequest request) {
+    return query(snapshot, NO_GROUPS, request);
+  }
+
+  /**
+   * Finds meeting times using a pinned calendar snapshot, expanding any groups in the request.
+   * A required group is scheduled against its cached merged busy time instead of every member's
+   * events. An optional group adds each of its members as an optional attendee.
+   */
+  public Collection<TimeRange> query(CalendarSnapshot snapshot, GroupDirectory groups, MeetingRequest request) {
+    return query(snapshot, groups, request, CalendarOverlay.NONE);
+  }
+
+  /**
+   * Finds meeting times as if the hypothetical changes in {@code overlay} had been made to the
+   * snapshot. The snapshot itself is neither copied nor changed.
+   */
+  public Collection<TimeRange> query(CalendarSnapshot snapshot, GroupDirectory groups, MeetingRequest request, CalendarOverlay overlay) {
+    Collection<String> required = new LinkedHashSet<>();
+    Set<String> requiredPeople = new HashSet<>();
+    Collection<Event> groupEvents = new ArrayList<>();
+    Map<String, FreeGapTree> groupGaps = new HashMap<>();
+
+    for (String attendee : request.getAttendees()) {
+      if (!GroupDirectory.isGroup(attendee)) {
+        required.add(attendee);
+        requiredPeople.add(attendee);
+        continue;
+      }
+
+      List<String> members = groups.expand(attendee);
+      if (overlay.touchesAny(members)) {
+        // The cached busy time doesn't include the overlay, so schedule the members one by one
+        required.addAll(members);
+        requiredPeople.addAll(members);
+      } else if (!members.isEmpty()) { // An empty group doesn't make the meeting required for anyone
+        GroupDirectory.GroupBusyTime busyTime = groups.getBusyTime(attendee, snapshot);
+        required.add(attendee);
+        requiredPeople.addAll(members);
+        groupEvents.addAll(busyTime.getEvents());
+        groupGaps.put(attendee, busyTime.getFreeGaps());
+      }
+    }
+
+    MeetingRequest expanded = new MeetingRequest(required, request.getDuration());
+    for (String attendee : request.getOptionalAttendees()) {
+      List<String> people = GroupDirectory.isGroup(attendee)
+          ? groups.expand(attendee)
+          : Arrays.asList(attendee);
+      for (String person : people) {
+        if (!requiredPeople.contains(person)) {
+          expanded.addOptionalAttendee(person);
+        }
+      }
+    }
+
+    // Required attendees decide whether there is any answer at all; without them the optional
+    // attendees do. If they never share a long enough gap, skip merging entirely.
+    Collection<String> deciding = expanded.getAttendees().isEmpty()
+        ? expanded.getOptionalAttendees()
+        : expanded.getAttendees();
+    if (expanded.getDuration() > 0 && !deciding.isEmpty()
+        && !hasCommonSlot(snapshot, overlay, groupGaps, deciding, expanded.getDuration())) {
+      return new ArrayList<>();
+    }
+
+    Collection<String> people = new ArrayList<>();
+    for (String attendee : expanded.getAttendees()) {
+      if (!groupGaps.containsKey(attendee)) {
+        people.add(attendee);
+      }
+    }
+    people.addAll(expanded.getOptionalAttendees());
+
+    Collection<Event> events = new ArrayList<>(overlay.getEvents(snapshot, people));
+    events.addAll(groupEvents);
+    return query(events, expanded);
+  }
+
   public Collection<TimeRange> query(Collection<Event> events, MeetingRequest request) {
     ArrayList<TimeRange> options = new ArrayList();
     long duration = request.getDuration();
@@ -40,13 +126,13 @@ public final class FindMeetingQuery {
     
     // Do not need to check if optional attendees are compatible with meeting request
     if (reqAttendees.size() == 0 || optAttendees.size() == 0){
-      allUnavailableBlocks = unavailableTime(events, allAttendees, duration);
+      allUnavailableBlocks = unavailableTime(events, allAttendees);
       options = findFreeTime(options, allUnavailableBlocks, duration);
 
     } else {
-      ArrayList<TimeRange> reqUnavailableBlocks = unavailableTime(events, reqAttendees, duration);
-      ArrayList<TimeRange> optUnavailableBlocks = unavailableTime(events, optAttendees, duration);
-      allUnavailableBlocks = unavailableTime(events, allAttendees, duration);
+      ArrayList<TimeRange> reqUnavailableBlocks = unavailableTime(events, reqAttendees);
+      ArrayList<TimeRange> optUnavailableBlocks = unavailableTime(events, optAttendees);
+      allUnavailableBlocks = unavailableTime(events, allAttendees);
       
       // Preserve options in case cannot accommodate opt attendees
       ArrayList<TimeRange> bestOptionsFound = findFreeTime(new ArrayList<>(options), allUnavailableBlocks, duration);
@@ -63,6 +149,22 @@ public final class FindMeetingQuery {
     return options;
   }
   
+  /**
+   * Checks the attendees' free gap trees for a slot they can all make
+   */
+  private boolean hasCommonSlot(CalendarSnapshot snapshot, CalendarOverlay overlay, Map<String, FreeGapTree> groupGaps, Collection<String> attendees, long duration) {
+    if (duration > TimeRange.WHOLE_DAY.duration()) {
+      return false;
+    }
+
+    Collection<FreeGapTree> trees = new ArrayList<>();
+    for (String attendee : attendees) {
+      FreeGapTree groupTree = groupGaps.get(attendee);
+      trees.add(groupTree != null ? groupTree : overlay.getFreeGaps(snapshot, attendee));
+    }
+    return FreeGapTree.earliestCommonSlot(trees, (int) duration) >= 0;
+  }
+
   /**
    * Find all possible time ranges for meeting 
    */
@@ -70,7 +172,7 @@ public final class FindMeetingQuery {
     ArrayList<TimeRange> optOptions = new ArrayList<>(options);
     
     for (String attendee : attendees){
-      ArrayList<TimeRange> attendeeEvents = unavailableTime(events, Arrays.asList(attendee), duration);
+      ArrayList<TimeRange> attendeeEvents = unavailableTime(events, Arrays.asList(attendee));
       ArrayList<TimeRange> attendeeFreeTime = findFreeTime(new ArrayList<>(optOptions), attendeeEvents, duration);
 
       // Remove opt attendees with incompatible free time
@@ -154,31 +256,27 @@ public final class FindMeetingQuery {
   /**
    * Block off all unavailable time
    */
-  private ArrayList<TimeRange> unavailableTime(Collection<Event> allEvents, Collection<String> attendees, long duration) {
+  private ArrayList<TimeRange> unavailableTime(Collection<Event> allEvents, Collection<String> attendees) {
     ArrayList<TimeRange> blockedTimeRanges = findAttendeesBlockedTimeRanges(allEvents, attendees);
-    return mergeTimeRanges(blockedTimeRanges, duration);
+    return mergeTimeRanges(blockedTimeRanges);
   }
 
   /**
-   * Merge attendees' busy blocks
+   * Merge attendees' busy blocks into non-overlapping blocks sorted by start time
    */
-  private ArrayList<TimeRange> mergeTimeRanges(ArrayList<TimeRange> busyEvents, long duration) {
+  private ArrayList<TimeRange> mergeTimeRanges(ArrayList<TimeRange> busyEvents) {
     Collections.sort(busyEvents, TimeRange.ORDER_BY_START);
 
-    ArrayList<TimeRange> blockedTime = new ArrayList<TimeRange>(busyEvents); // prevent list modification during loop
-    
-    for (int i = 0; i < busyEvents.size() - 1; i++) {
-      TimeRange current = busyEvents.get(i);
-      TimeRange next = busyEvents.get(i+1);
-      boolean nextEndOfDay = (next.end() == TimeRange.END_OF_DAY); // Meetings go to the end of the day should be inclusive of end time
-
-      // Unable to schedule meeting between events
-      if (current.overlaps(next)) {
-        if ((next.end() >= current.end()) || (next.start() - current.start() < duration)) {
-          blockedTime.add(TimeRange.fromStartEnd(current.start(), next.end(), nextEndOfDay));  
-          blockedTime.remove(current);  // replaced with merged block
-        }
-        blockedTime.remove(next); // absorbed
+    ArrayList<TimeRange> blockedTime = new ArrayList<TimeRange>();
+    for (TimeRange next : busyEvents) {
+      int last = blockedTime.size() - 1;
+
+      // Unable to schedule meeting between events; a block nested inside another must not shrink it
+      if (last >= 0 && blockedTime.get(last).overlaps(next)) {
+        TimeRange current = blockedTime.get(last);
+        blockedTime.set(last, TimeRange.fromStartEnd(current.start(), Math.max(current.end(), next.end()), false));
+      } else {
+        blockedTime.add(next);
       }
     }
     return blockedTime;
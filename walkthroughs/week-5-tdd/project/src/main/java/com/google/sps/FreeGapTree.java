@@ -0,0 +1,167 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The free gaps in one attendee's day, kept in a segment tree where every node stores the longest
+ * gap below it. That answers "is there a gap of at least {@code d} minutes" in constant time and
+ * "where is the earliest such gap after time {@code t}" in logarithmic time, without merging any
+ * events.
+ */
+public final class FreeGapTree {
+  // Gap i is [gapStarts[i], gapEnds[i]). Gaps are sorted and never touch each other.
+  private final int[] gapStarts;
+  private final int[] gapEnds;
+  // Longest gap under each node of a segment tree over the gaps. The root is node 1.
+  private final int[] longest;
+
+  /**
+   * Builds the tree from events sorted by start time.
+   */
+  FreeGapTree(List<Event> eventsByStart) {
+    List<int[]> gaps = new ArrayList<>();
+    int freeFrom = TimeRange.START_OF_DAY;
+    for (Event event : eventsByStart) {
+      TimeRange when = event.getWhen();
+      // An event with no duration still splits the free time around it.
+      if (when.start() >= freeFrom) {
+        if (when.start() > freeFrom) {
+          gaps.add(new int[] {freeFrom, when.start()});
+        }
+        freeFrom = when.start();
+      }
+      freeFrom = Math.max(freeFrom, when.end());
+    }
+    if (freeFrom < TimeRange.WHOLE_DAY.end()) {
+      gaps.add(new int[] {freeFrom, TimeRange.WHOLE_DAY.end()});
+    }
+
+    gapStarts = new int[gaps.size()];
+    gapEnds = new int[gaps.size()];
+    for (int i = 0; i < gaps.size(); i++) {
+      gapStarts[i] = gaps.get(i)[0];
+      gapEnds[i] = gaps.get(i)[1];
+    }
+
+    longest = new int[Math.max(1, 4 * gaps.size())];
+    if (!gaps.isEmpty()) {
+      build(1, 0, gaps.size() - 1);
+    }
+  }
+
+  private void build(int node, int low, int high) {
+    if (low == high) {
+      longest[node] = gapEnds[low] - gapStarts[low];
+      return;
+    }
+    int middle = (low + high) >>> 1;
+    build(2 * node, low, middle);
+    build(2 * node + 1, middle + 1, high);
+    longest[node] = Math.max(longest[2 * node], longest[2 * node + 1]);
+  }
+
+  /**
+   * Returns the length of the longest free gap in minutes.
+   */
+  public int longestGap() {
+    return gapStarts.length == 0 ? 0 : longest[1];
+  }
+
+  /**
+   * Returns the earliest time at or after {@code from} that starts {@code duration} free minutes,
+   * or -1 if there is none.
+   */
+  public int earliestSlot(int from, int duration) {
+    if (longestGap() < duration) {
+      return -1;
+    }
+
+    // Find the first gap that ends after {@code from}.
+    int low = 0;
+    int high = gapEnds.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (gapEnds[middle] <= from) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    if (low == gapEnds.length) {
+      return -1;
+    }
+
+    // That gap may have started before {@code from}, so only part of it counts.
+    int start = Math.max(gapStarts[low], from);
+    if (gapEnds[low] - start >= duration) {
+      return start;
+    }
+
+    int next = firstGapAtLeast(1, 0, gapStarts.length - 1, low + 1, duration);
+    return next < 0 ? -1 : gapStarts[next];
+  }
+
+  /**
+   * Returns the index of the first gap at or after {@code from} that is at least
+   * {@code duration} long, or -1.
+   */
+  private int firstGapAtLeast(int node, int low, int high, int from, int duration) {
+    if (high < from || longest[node] < duration) {
+      return -1;
+    }
+    if (low == high) {
+      return low;
+    }
+    int middle = (low + high) >>> 1;
+    int left = firstGapAtLeast(2 * node, low, middle, from, duration);
+    return left >= 0 ? left : firstGapAtLeast(2 * node + 1, middle + 1, high, from, duration);
+  }
+
+  /**
+   * Returns the earliest time at which every tree has {@code duration} free minutes, or -1 if the
+   * attendees never are all free for that long.
+   */
+  public static int earliestCommonSlot(Collection<FreeGapTree> trees, int duration) {
+    // Reject on the roots first; that's the common case for long requests.
+    for (FreeGapTree tree : trees) {
+      if (tree.longestGap() < duration) {
+        return -1;
+      }
+    }
+
+    // Leapfrog: move the candidate to the earliest slot of whoever isn't free yet, until one full
+    // pass leaves it where it is. The candidate only moves forward, one gap start at a time.
+    int candidate = TimeRange.START_OF_DAY;
+    boolean moved = true;
+    while (moved) {
+      moved = false;
+      for (FreeGapTree tree : trees) {
+        int slot = tree.earliestSlot(candidate, duration);
+        if (slot < 0) {
+          return -1;
+        }
+        if (slot > candidate) {
+          candidate = slot;
+          moved = true;
+        }
+      }
+    }
+    return candidate;
+  }
+}
@@ -0,0 +1,221 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Groups and distribution lists that can be invited by name. A group's members can be people or
+ * other groups. Expanding a group to the people in it, and merging those people's busy time, are
+ * both cached: closures until any membership changes, and busy time until the membership or one of
+ * the members' calendars changes.
+ */
+public final class GroupDirectory {
+  /** Attendee names starting with this prefix refer to groups. */
+  public static final String GROUP_PREFIX = "group:";
+
+  private final Map<String, Set<String>> members = new ConcurrentHashMap<>();
+  // Bumped after every membership change. Cached values remember the version they were built at.
+  private final AtomicLong version = new AtomicLong();
+  private final Map<String, Closure> closures = new ConcurrentHashMap<>();
+  private final Map<String, GroupBusyTime> busyTimes = new ConcurrentHashMap<>();
+
+  /**
+   * Returns true if {@code attendee} names a group rather than a person.
+   */
+  public static boolean isGroup(String attendee) {
+    return attendee.startsWith(GROUP_PREFIX);
+  }
+
+  /**
+   * Returns the names of every group.
+   */
+  public Set<String> getGroups() {
+    return Collections.unmodifiableSet(members.keySet());
+  }
+
+  /**
+   * Returns the direct members of {@code group}, which may include other groups.
+   */
+  public Set<String> getMembers(String group) {
+    Set<String> direct = members.get(group);
+    return direct == null ? Collections.emptySet() : direct;
+  }
+
+  /**
+   * Replaces the members of {@code group}.
+   */
+  public synchronized void setMembers(String group, Collection<String> newMembers) {
+    if (!isGroup(group)) {
+      throw new IllegalArgumentException("Group names must start with " + GROUP_PREFIX);
+    }
+    members.put(group, Collections.unmodifiableSet(new LinkedHashSet<>(newMembers)));
+    invalidate();
+  }
+
+  /**
+   * Deletes {@code group}. Groups that contain it no longer include its members.
+   */
+  public synchronized void removeGroup(String group) {
+    members.remove(group);
+    invalidate();
+  }
+
+  private void invalidate() {
+    // Any group may contain the changed one, so every cached value is out of date.
+    version.incrementAndGet();
+    closures.clear();
+    busyTimes.clear();
+  }
+
+  /**
+   * Returns every person in {@code group}, following nested groups. Cycles are ignored.
+   */
+  public List<String> expand(String group) {
+    long current = version.get();
+    Closure closure = closures.get(group);
+    if (closure != null && closure.version == current) {
+      return closure.people;
+    }
+
+    Set<String> people = new LinkedHashSet<>();
+    Set<String> visited = new LinkedHashSet<>();
+    Deque<String> pending = new ArrayDeque<>();
+    pending.add(group);
+    while (!pending.isEmpty()) {
+      String next = pending.remove();
+      if (!visited.add(next)) {
+        continue;
+      }
+      for (String member : getMembers(next)) {
+        if (isGroup(member)) {
+          pending.add(member);
+        } else {
+          people.add(member);
+        }
+      }
+    }
+
+    closure = new Closure(current, Collections.unmodifiableList(new ArrayList<>(people)));
+    closures.put(group, closure);
+    return closure.people;
+  }
+
+  /**
+   * Returns the merged busy time of everyone in {@code group}. The result is reused until the
+   * group's membership changes or one of its members' calendars does.
+   */
+  public GroupBusyTime getBusyTime(String group, CalendarSnapshot snapshot) {
+    long current = version.get();
+    List<String> people = expand(group);
+
+    CalendarSnapshot.AttendeeCalendar[] calendars =
+        new CalendarSnapshot.AttendeeCalendar[people.size()];
+    for (int i = 0; i < calendars.length; i++) {
+      calendars[i] = snapshot.getCalendar(people.get(i));
+    }
+
+    // Snapshots share untouched attendee calendars, so comparing identities is enough to know
+    // that nobody in the group has changed.
+    GroupBusyTime cached = busyTimes.get(group);
+    if (cached != null && cached.version == current
+        && Arrays.equals(cached.calendars, calendars)) {
+      return cached;
+    }
+
+    GroupBusyTime busyTime = new GroupBusyTime(group, current, calendars);
+    busyTimes.put(group, busyTime);
+    return busyTime;
+  }
+
+  /** The people in a group as of one membership version. */
+  private static final class Closure {
+    private final long version;
+    private final List<String> people;
+
+    private Closure(long version, List<String> people) {
+      this.version = version;
+      this.people = people;
+    }
+  }
+
+  /**
+   * The busy time of everyone in a group, merged into non-overlapping events attended by the group
+   * itself. Scheduling against these events gives the same free time as scheduling against every
+   * member's events.
+   */
+  public static final class GroupBusyTime {
+    private final long version;
+    private final CalendarSnapshot.AttendeeCalendar[] calendars;
+    private final List<Event> events;
+    private final FreeGapTree freeGaps;
+
+    private GroupBusyTime(
+        String group, long version, CalendarSnapshot.AttendeeCalendar[] calendars) {
+      this.version = version;
+      this.calendars = calendars;
+
+      List<TimeRange> ranges = new ArrayList<>();
+      for (CalendarSnapshot.AttendeeCalendar calendar : calendars) {
+        for (Event event : calendar.getEvents()) {
+          ranges.add(event.getWhen());
+        }
+      }
+      Collections.sort(ranges, TimeRange.ORDER_BY_START);
+
+      List<Event> merged = new ArrayList<>();
+      Collection<String> attendees = Collections.singleton(group);
+      int i = 0;
+      while (i < ranges.size()) {
+        int start = ranges.get(i).start();
+        int end = ranges.get(i).end();
+        // Anything starting strictly inside the block joins it. Ranges that only touch it stay
+        // separate, as do events with no duration, since those split free time.
+        for (i++; i < ranges.size() && ranges.get(i).start() < end; i++) {
+          end = Math.max(end, ranges.get(i).end());
+        }
+        merged.add(new Event(group, TimeRange.fromStartEnd(start, end, false), attendees));
+      }
+
+      this.events = Collections.unmodifiableList(merged);
+      this.freeGaps = new FreeGapTree(merged);
+    }
+
+    /**
+     * Returns the merged busy blocks sorted by start time.
+     */
+    public List<Event> getEvents() {
+      return events;
+    }
+
+    /**
+     * Returns the free gaps left by the merged busy blocks.
+     */
+    public FreeGapTree getFreeGaps() {
+      return freeGaps;
+    }
+  }
+}
@@ -0,0 +1,285 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable map from strings to values that shares structure between versions. Keys are
+ * placed in a 32-way trie by the bits of their hash, so adding or removing a key copies only the
+ * few nodes on its path and the new map shares every other node with the old one. Lookups and
+ * changes take time proportional to the trie's depth, which grows with the log base 32 of the
+ * size.
+ */
+final class HashTrie<V> {
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+
+  private static final HashTrie<?> EMPTY = new HashTrie<>(new Node(new Object[1 << BITS]), 0);
+
+  // Slots hold null, a Node one level down, or an Entry[] of keys sharing the hash bits so far.
+  private final Node root;
+  private final int size;
+
+  private HashTrie(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Returns the map with no keys.
+   */
+  @SuppressWarnings("unchecked")
+  static <V> HashTrie<V> empty() {
+    return (HashTrie<V>) EMPTY;
+  }
+
+  /**
+   * Returns the number of keys in the map.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the value of {@code key}, or null if the map doesn't have it.
+   */
+  @SuppressWarnings("unchecked")
+  V get(String key) {
+    int hash = key.hashCode();
+    Node node = root;
+    for (int shift = 0; ; shift += BITS) {
+      Object slot = node.slots[(hash >>> shift) & MASK];
+      if (slot instanceof Node) {
+        node = (Node) slot;
+      } else {
+        int index = indexOf((Entry[]) slot, key);
+        return index < 0 ? null : (V) ((Entry[]) slot)[index].value;
+      }
+    }
+  }
+
+  /**
+   * Returns a map with {@code key} set to {@code value}. This map is left unchanged.
+   */
+  HashTrie<V> with(String key, V value) {
+    boolean added = get(key) == null;
+    return new HashTrie<>(put(root, 0, new Entry(key, value)), added ? size + 1 : size);
+  }
+
+  /**
+   * Returns a map without {@code key}. This map is left unchanged.
+   */
+  HashTrie<V> without(String key) {
+    if (get(key) == null) {
+      return this;
+    }
+    return new HashTrie<>(remove(root, 0, key), size - 1);
+  }
+
+  /**
+   * Returns a read-only view of the keys.
+   */
+  Set<String> keySet() {
+    return new AbstractSet<String>() {
+      @Override
+      public Iterator<String> iterator() {
+        final Iterator<Entry> entries = new EntryIterator(root);
+        return new Iterator<String>() {
+          @Override
+          public boolean hasNext() {
+            return entries.hasNext();
+          }
+
+          @Override
+          public String next() {
+            return entries.next().key;
+          }
+        };
+      }
+
+      @Override
+      public boolean contains(Object key) {
+        return key instanceof String && get((String) key) != null;
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Returns the values in no particular order.
+   */
+  Iterable<V> values() {
+    return () -> {
+      final Iterator<Entry> entries = new EntryIterator(root);
+      return new Iterator<V>() {
+        @Override
+        public boolean hasNext() {
+          return entries.hasNext();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V next() {
+          return (V) entries.next().value;
+        }
+      };
+    };
+  }
+
+  private static Node put(Node node, int shift, Entry entry) {
+    Object[] slots = node.slots.clone();
+    int i = (entry.hash >>> shift) & MASK;
+    Object slot = slots[i];
+    if (slot instanceof Node) {
+      slots[i] = put((Node) slot, shift + BITS, entry);
+    } else if (slot == null) {
+      slots[i] = new Entry[] {entry};
+    } else {
+      Entry[] bucket = (Entry[]) slot;
+      int index = indexOf(bucket, entry.key);
+      if (index >= 0) {
+        bucket = bucket.clone();
+        bucket[index] = entry;
+        slots[i] = bucket;
+      } else if (shift + BITS >= Integer.SIZE) {
+        // Every bit of the hash is used up, so the keys' hashes are equal.
+        bucket = Arrays.copyOf(bucket, bucket.length + 1);
+        bucket[bucket.length - 1] = entry;
+        slots[i] = bucket;
+      } else {
+        // Above the last level a bucket holds one key. Push both keys a level down.
+        Node child = put(new Node(new Object[1 << BITS]), shift + BITS, bucket[0]);
+        slots[i] = put(child, shift + BITS, entry);
+      }
+    }
+    return new Node(slots);
+  }
+
+  private static Node remove(Node node, int shift, String key) {
+    Object[] slots = node.slots.clone();
+    int i = (key.hashCode() >>> shift) & MASK;
+    Object slot = slots[i];
+    if (slot instanceof Node) {
+      Node child = remove((Node) slot, shift + BITS, key);
+      slots[i] = child.isEmpty() ? null : child;
+    } else {
+      Entry[] bucket = (Entry[]) slot;
+      int index = indexOf(bucket, key);
+      if (bucket.length == 1) {
+        slots[i] = null;
+      } else {
+        Entry[] smaller = new Entry[bucket.length - 1];
+        System.arraycopy(bucket, 0, smaller, 0, index);
+        System.arraycopy(bucket, index + 1, smaller, index, smaller.length - index);
+        slots[i] = smaller;
+      }
+    }
+    return new Node(slots);
+  }
+
+  private static int indexOf(Entry[] bucket, String key) {
+    if (bucket != null) {
+      for (int i = 0; i < bucket.length; i++) {
+        if (bucket[i].key.equals(key)) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private static final class Node {
+    private final Object[] slots;
+
+    private Node(Object[] slots) {
+      this.slots = slots;
+    }
+
+    private boolean isEmpty() {
+      for (Object slot : slots) {
+        if (slot != null) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static final class Entry {
+    private final String key;
+    private final int hash;
+    private final Object value;
+
+    private Entry(String key, Object value) {
+      this.key = key;
+      this.hash = key.hashCode();
+      this.value = value;
+    }
+  }
+
+  /** Walks the trie depth first. */
+  private static final class EntryIterator implements Iterator<Entry> {
+    private final Deque<Object> pending = new ArrayDeque<>();
+    private Entry[] bucket;
+    private int index;
+
+    private EntryIterator(Node root) {
+      pending.push(root);
+      advance();
+    }
+
+    private void advance() {
+      while ((bucket == null || index == bucket.length) && !pending.isEmpty()) {
+        Object next = pending.pop();
+        if (next instanceof Node) {
+          for (Object slot : ((Node) next).slots) {
+            if (slot != null) {
+              pending.push(slot);
+            }
+          }
+        } else {
+          bucket = (Entry[]) next;
+          index = 0;
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return bucket != null && index < bucket.length;
+    }
+
+    @Override
+    public Entry next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Entry entry = bucket[index++];
+      advance();
+      return entry;
+    }
+  }
+}
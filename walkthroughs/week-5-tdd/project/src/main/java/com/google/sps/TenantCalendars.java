@@ -0,0 +1,570 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps one isolated calendar per tenant. A tenant's calendar is loaded from {@link Storage} the
+ * first time it is asked for and dropped again after it has been idle for a while, so only active
+ * tenants take memory. Every change is written to storage before it is applied in memory, so any
+ * idle tenant can be dropped and loaded again as it was. Each tenant's events and groups are
+ * capped by a memory budget, so one tenant with a huge calendar can't crowd out the others, and
+ * the memory and number of all resident tenants are capped too. Per-tenant query latency and
+ * memory use are tracked for {@link #getMetrics()}.
+ */
+public final class TenantCalendars {
+  /** The tenant used when a request doesn't name one. */
+  public static final String DEFAULT_TENANT = "default";
+
+  private static final Pattern TENANT_NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+  // Rough per-object costs, in bytes, used to estimate how much memory a calendar takes.
+  private static final long EVENT_BYTES = 96;
+  private static final long ATTENDEE_BYTES = 48;
+  private static final long GROUP_BYTES = 160;
+  private static final long MEMBER_BYTES = 48;
+
+  private static final TenantCalendars DEFAULT = new TenantCalendars(new DatastoreStorage(),
+      TimeUnit.MINUTES.toNanos(30), 64L << 20, 512L << 20, 256, System::nanoTime);
+
+  private final Storage storage;
+  private final long idleNanos;
+  private final long budgetBytes;
+  private final long totalBudgetBytes;
+  private final int maxTenants;
+  private final LongSupplier clock;
+  private final Map<String, Tenant> tenants = new ConcurrentHashMap<>();
+  private final AtomicLong lastSweep;
+  // The estimated memory of every resident tenant. Guarded by this, like admitting and evicting.
+  private long residentBytes;
+
+  /**
+   * Creates an empty set of tenants.
+   *
+   * @param storage Loads a tenant's calendar the first time the tenant is used, and again after
+   *     it has been evicted, and keeps every change.
+   * @param idleNanos How long a tenant can go unused before it is evicted.
+   * @param budgetBytes The most memory one tenant's events and groups may take, as estimated by
+   *     {@link #estimateBytes(Collection)} and {@link #estimateBytes(GroupDirectory)}.
+   * @param totalBudgetBytes The most memory all resident tenants may take together. Must be at
+   *     least {@code budgetBytes}.
+   * @param maxTenants The most tenants that can be resident at once.
+   * @param clock Returns the current time in nanoseconds, like {@code System::nanoTime}.
+   */
+  public TenantCalendars(Storage storage, long idleNanos, long budgetBytes,
+      long totalBudgetBytes, int maxTenants, LongSupplier clock) {
+    if (idleNanos <= 0 || budgetBytes <= 0 || maxTenants <= 0) {
+      throw new IllegalArgumentException("idleNanos, budgetBytes and maxTenants must be positive");
+    }
+    if (totalBudgetBytes < budgetBytes) {
+      throw new IllegalArgumentException("totalBudgetBytes must be at least budgetBytes");
+    }
+
+    this.storage = storage;
+    this.idleNanos = idleNanos;
+    this.budgetBytes = budgetBytes;
+    this.totalBudgetBytes = totalBudgetBytes;
+    this.maxTenants = maxTenants;
+    this.clock = clock;
+    this.lastSweep = new AtomicLong(clock.getAsLong());
+  }
+
+  /**
+   * Returns the tenants shared by the servlets, kept in Datastore. The default tenant starts out
+   * with the sample events in {@code Events}; every other tenant starts out empty.
+   */
+  public static TenantCalendars getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Returns the calendar of {@code name}, loading it if it isn't resident. A null or empty name
+   * means the default tenant.
+   *
+   * @throws IllegalArgumentException if the name isn't made of letters, digits, '-' and '_'.
+   * @throws QuotaExceededException if the loaded calendar doesn't fit in the budget.
+   * @throws TenantLimitExceededException if the tenant isn't resident and there is no room for
+   *     another one, even after evicting idle tenants.
+   */
+  public Tenant get(String name) {
+    name = checkName(name);
+
+    long now = clock.getAsLong();
+    sweepIfDue(now);
+
+    Tenant tenant = tenants.get(name);
+    if (tenant == null) {
+      // Load outside the lock; storage is slow. Two requests may both load a new tenant, and the
+      // second one's copy is dropped.
+      tenant = admit(load(name));
+    }
+    tenant.lastAccess = now;
+    return tenant;
+  }
+
+  /**
+   * Returns the tenant {@code name} refers to: the default tenant for a null or empty name, and
+   * the name itself otherwise.
+   *
+   * @throws IllegalArgumentException if the name isn't made of letters, digits, '-' and '_'.
+   */
+  public static String checkName(String name) {
+    if (name == null || name.isEmpty()) {
+      return DEFAULT_TENANT;
+    }
+    if (!TENANT_NAME.matcher(name).matches()) {
+      throw new IllegalArgumentException("Invalid tenant: " + name);
+    }
+    return name;
+  }
+
+  private Tenant load(String name) {
+    Tenant tenant = new Tenant(name, storage.loadEvents(name), storage.loadGroups(name));
+    checkBudget(name, tenant.getBytes());
+    return tenant;
+  }
+
+  /**
+   * Makes a loaded tenant resident, unless another request got there first.
+   *
+   * @return The resident tenant.
+   */
+  private synchronized Tenant admit(Tenant loaded) {
+    Tenant existing = tenants.get(loaded.name);
+    if (existing != null) {
+      return existing;
+    }
+    if (tenants.size() >= maxTenants) {
+      evictIdle();
+    }
+    if (tenants.size() >= maxTenants) {
+      throw new TenantLimitExceededException(
+          "Too many active tenants to load " + loaded.name + "; try again later");
+    }
+    reserve(loaded, loaded.getBytes());
+    tenants.put(loaded.name, loaded);
+    return loaded;
+  }
+
+  /**
+   * Counts {@code bytes} as the memory {@code tenant} takes, evicting idle tenants if that goes
+   * over the total budget. Does nothing for tenants that have been evicted.
+   *
+   * @throws TenantLimitExceededException if the total budget would be exceeded even after
+   *     evicting idle tenants.
+   */
+  private synchronized void reserve(Tenant tenant, long bytes) {
+    if (tenant.evicted) {
+      return;
+    }
+    long growth = bytes - tenant.reservedBytes;
+    if (growth > 0 && residentBytes + growth > totalBudgetBytes) {
+      evictIdle();
+      if (tenant.evicted) {
+        return;
+      }
+      if (residentBytes + growth > totalBudgetBytes) {
+        throw new TenantLimitExceededException("Not enough memory for tenant " + tenant.name
+            + " while other tenants are active; try again later");
+      }
+    }
+    residentBytes += growth;
+    tenant.reservedBytes = bytes;
+  }
+
+  /**
+   * Returns the estimated memory every resident tenant takes together.
+   */
+  public synchronized long getResidentBytes() {
+    return residentBytes;
+  }
+
+  /**
+   * Returns the names of the tenants that are currently loaded.
+   */
+  public Collection<String> getResidentTenants() {
+    return Collections.unmodifiableSet(tenants.keySet());
+  }
+
+  /**
+   * Returns the metrics of every resident tenant.
+   */
+  public List<TenantMetrics> getMetrics() {
+    long now = clock.getAsLong();
+    List<TenantMetrics> metrics = new ArrayList<>();
+    for (Tenant tenant : tenants.values()) {
+      metrics.add(tenant.getMetrics(now));
+    }
+    return metrics;
+  }
+
+  /**
+   * Evicts every tenant that has been idle for longer than the idle timeout. Their changes are
+   * all in storage, so they load again as they were.
+   */
+  public synchronized void evictIdle() {
+    long now = clock.getAsLong();
+    lastSweep.set(now);
+    for (Tenant tenant : tenants.values()) {
+      if (now - tenant.lastAccess > idleNanos && tenants.remove(tenant.name, tenant)) {
+        tenant.evicted = true;
+        residentBytes -= tenant.reservedBytes;
+      }
+    }
+  }
+
+  /**
+   * Sweeps for idle tenants at most a few times per idle timeout, from whichever request gets
+   * there first.
+   */
+  private void sweepIfDue(long now) {
+    long last = lastSweep.get();
+    if (now - last > idleNanos / 4 && lastSweep.compareAndSet(last, now)) {
+      evictIdle();
+    }
+  }
+
+  /**
+   * Returns a rough estimate of the memory {@code events} take once loaded into a calendar: the
+   * events themselves plus one entry per attendee in the per-attendee indexes.
+   */
+  public static long estimateBytes(Collection<Event> events) {
+    long bytes = 0;
+    for (Event event : events) {
+      bytes += EVENT_BYTES + 2L * event.getTitle().length()
+          + ATTENDEE_BYTES * event.getAttendees().size();
+    }
+    return bytes;
+  }
+
+  /**
+   * Returns a rough estimate of the memory the groups in {@code groups} take: each group plus one
+   * entry per member.
+   */
+  public static long estimateBytes(GroupDirectory groups) {
+    long bytes = 0;
+    for (String group : groups.getGroups()) {
+      bytes += estimateGroupBytes(group, groups.getMembers(group));
+    }
+    return bytes;
+  }
+
+  private static long estimateGroupBytes(String group, Collection<String> members) {
+    long bytes = GROUP_BYTES + 2L * group.length();
+    for (String member : members) {
+      bytes += MEMBER_BYTES + 2L * member.length();
+    }
+    return bytes;
+  }
+
+  private void checkBudget(String name, long bytes) {
+    if (bytes > budgetBytes) {
+      throw new QuotaExceededException("Tenant " + name + " needs about " + bytes
+          + " bytes for its events and groups but its budget is " + budgetBytes);
+    }
+  }
+
+  /**
+   * One tenant's calendar and the metrics recorded for it.
+   */
+  public final class Tenant {
+    private final String name;
+    private final CalendarStore store;
+    private volatile int eventCount;
+    private volatile long eventBytes;
+    private volatile long groupBytes;
+    private volatile long lastAccess;
+    // The memory counted against the total budget, and whether the tenant has been evicted. Both
+    // guarded by the enclosing TenantCalendars.
+    private long reservedBytes;
+    private boolean evicted;
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong queryNanos = new AtomicLong();
+    private final AtomicLong maxQueryNanos = new AtomicLong();
+
+    private Tenant(String name, Collection<Event> events, Map<String, List<String>> groups) {
+      this.name = name;
+      this.store = new CalendarStore(events);
+      for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+        store.getGroups().setMembers(group.getKey(), group.getValue());
+      }
+      this.eventCount = events.size();
+      this.eventBytes = estimateBytes(events);
+      this.groupBytes = estimateBytes(store.getGroups());
+      this.lastAccess = clock.getAsLong();
+    }
+
+    private long getBytes() {
+      return eventBytes + groupBytes;
+    }
+
+    /**
+     * Returns the tenant's name.
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Returns the current snapshot of the tenant's calendar.
+     */
+    public CalendarSnapshot snapshot() {
+      return store.snapshot();
+    }
+
+    /**
+     * Returns the tenant's groups. Change them through {@link #setGroupMembers} and
+     * {@link #removeGroup} so the change is saved and counts against the budget.
+     */
+    public GroupDirectory getGroups() {
+      return store.getGroups();
+    }
+
+    /**
+     * Replaces the tenant's events with {@code events} and saves them.
+     *
+     * @throws QuotaExceededException if the events don't fit in the budget. The calendar is left
+     *     unchanged.
+     * @throws TenantLimitExceededException if the other resident tenants leave no room for the
+     *     events. The calendar is left unchanged.
+     */
+    public synchronized void publish(Collection<Event> events) {
+      long bytes = estimateBytes(events);
+      checkBudget(name, bytes + groupBytes);
+      reserve(this, Math.max(getBytes(), bytes + groupBytes));
+      try {
+        storage.saveEvents(name, events);
+        store.publish(events);
+        eventCount = events.size();
+        eventBytes = bytes;
+      } finally {
+        // Give back whatever the change didn't end up using.
+        reserve(this, getBytes());
+      }
+    }
+
+    /**
+     * Replaces the members of {@code group}, creating it if needed, and saves the group.
+     *
+     * @throws IllegalArgumentException if {@code group} isn't a group name.
+     * @throws QuotaExceededException if the groups no longer fit in the budget. The groups are
+     *     left unchanged.
+     * @throws TenantLimitExceededException if the other resident tenants leave no room for the
+     *     group. The groups are left unchanged.
+     */
+    public synchronized void setGroupMembers(String group, Collection<String> members) {
+      if (!GroupDirectory.isGroup(group)) {
+        throw new IllegalArgumentException(
+            "Group names must start with " + GroupDirectory.GROUP_PREFIX);
+      }
+      GroupDirectory groups = store.getGroups();
+      long bytes = groupBytes + estimateGroupBytes(group, members)
+          - (groups.getGroups().contains(group)
+              ? estimateGroupBytes(group, groups.getMembers(group)) : 0);
+      checkBudget(name, eventBytes + bytes);
+      reserve(this, Math.max(getBytes(), eventBytes + bytes));
+      try {
+        storage.saveGroup(name, group, members);
+        groups.setMembers(group, members);
+        groupBytes = bytes;
+      } finally {
+        reserve(this, getBytes());
+      }
+    }
+
+    /**
+     * Deletes {@code group}, in memory and in storage.
+     */
+    public synchronized void removeGroup(String group) {
+      storage.removeGroup(name, group);
+      GroupDirectory groups = store.getGroups();
+      if (groups.getGroups().contains(group)) {
+        groupBytes -= estimateGroupBytes(group, groups.getMembers(group));
+      }
+      groups.removeGroup(group);
+      reserve(this, getBytes());
+    }
+
+    /**
+     * Records how long one query against this tenant took.
+     */
+    public void recordQuery(long nanos) {
+      queries.incrementAndGet();
+      queryNanos.addAndGet(nanos);
+      maxQueryNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private TenantMetrics getMetrics(long now) {
+      return new TenantMetrics(name, eventCount, eventBytes + groupBytes,
+          budgetBytes, queries.get(), queryNanos.get(), maxQueryNanos.get(), now - lastAccess);
+    }
+  }
+
+  /**
+   * Where tenants' calendars and groups are kept while they aren't resident. Tenants write every
+   * change through to it.
+   */
+  public interface Storage {
+    /**
+     * Returns the saved events of {@code tenant}, or its initial events if none are saved.
+     */
+    Collection<Event> loadEvents(String tenant);
+
+    /**
+     * Returns the saved groups of {@code tenant} and their direct members.
+     */
+    Map<String, List<String>> loadGroups(String tenant);
+
+    /**
+     * Replaces the saved events of {@code tenant}.
+     */
+    void saveEvents(String tenant, Collection<Event> events);
+
+    /**
+     * Replaces the saved members of one of the groups of {@code tenant}.
+     */
+    void saveGroup(String tenant, String group, Collection<String> members);
+
+    /**
+     * Deletes one of the saved groups of {@code tenant}.
+     */
+    void removeGroup(String tenant, String group);
+  }
+
+  /**
+   * Keeps each tenant in its {@link DatastoreCalendar}. Until the default tenant saves events of
+   * its own, it has the sample events in {@code Events}.
+   */
+  private static final class DatastoreStorage implements Storage {
+    @Override
+    public Collection<Event> loadEvents(String tenant) {
+      List<Event> events = DatastoreCalendar.forTenant(tenant).loadCalendar();
+      if (events != null) {
+        return events;
+      }
+      return DEFAULT_TENANT.equals(tenant)
+          ? Arrays.asList(Events.events)
+          : Collections.<Event>emptyList();
+    }
+
+    @Override
+    public Map<String, List<String>> loadGroups(String tenant) {
+      return DatastoreCalendar.forTenant(tenant).loadGroups();
+    }
+
+    @Override
+    public void saveEvents(String tenant, Collection<Event> events) {
+      DatastoreCalendar.forTenant(tenant).saveCalendar(events);
+    }
+
+    @Override
+    public void saveGroup(String tenant, String group, Collection<String> members) {
+      DatastoreCalendar.forTenant(tenant).saveGroup(group, members);
+    }
+
+    @Override
+    public void removeGroup(String tenant, String group) {
+      DatastoreCalendar.forTenant(tenant).removeGroup(group);
+    }
+  }
+
+  /**
+   * A point-in-time view of one tenant's memory use and query latency.
+   */
+  public static final class TenantMetrics {
+    private final String tenant;
+    private final int events;
+    private final long estimatedBytes;
+    private final long budgetBytes;
+    private final long queries;
+    private final double meanQueryMillis;
+    private final double maxQueryMillis;
+    private final long idleMillis;
+
+    private TenantMetrics(String tenant, int events, long estimatedBytes, long budgetBytes,
+        long queries, long queryNanos, long maxQueryNanos, long idleNanos) {
+      this.tenant = tenant;
+      this.events = events;
+      this.estimatedBytes = estimatedBytes;
+      this.budgetBytes = budgetBytes;
+      this.queries = queries;
+      this.meanQueryMillis = queries == 0 ? 0 : queryNanos / 1e6 / queries;
+      this.maxQueryMillis = maxQueryNanos / 1e6;
+      this.idleMillis = TimeUnit.NANOSECONDS.toMillis(idleNanos);
+    }
+
+    public String getTenant() {
+      return tenant;
+    }
+
+    public int getEvents() {
+      return events;
+    }
+
+    public long getEstimatedBytes() {
+      return estimatedBytes;
+    }
+
+    public long getBudgetBytes() {
+      return budgetBytes;
+    }
+
+    public long getQueries() {
+      return queries;
+    }
+
+    public double getMeanQueryMillis() {
+      return meanQueryMillis;
+    }
+
+    public double getMaxQueryMillis() {
+      return maxQueryMillis;
+    }
+
+    public long getIdleMillis() {
+      return idleMillis;
+    }
+  }
+
+  /**
+   * Thrown when a tenant needs to be loaded or grow while the most tenants, or the most memory,
+   * allowed for all tenants together are already taken by tenants that aren't idle.
+   */
+  public static final class TenantLimitExceededException extends RuntimeException {
+    public TenantLimitExceededException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Thrown when a tenant's events and groups would take more memory than its budget allows.
+   */
+  public static final class QuotaExceededException extends RuntimeException {
+    public QuotaExceededException(String message) {
+      super(message);
+    }
+  }
+}
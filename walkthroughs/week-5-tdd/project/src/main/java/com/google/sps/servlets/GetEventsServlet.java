@@ -14,7 +14,9 @@
 
 package com.google.sps.servlets;
 
-import com.google.sps.Events;
+import com.google.sps.EventPage;
+import com.google.sps.TenantCalendars;
+import com.google.sps.TimeRange;
 import com.google.gson.Gson;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
@@ -22,15 +24,66 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+/**
+ * Lists the events on the calendar one page at a time. Every parameter is optional:
+ * {@code attendee} only lists that person's events, {@code start} and {@code end} limit the
+ * listing to a window given in minutes since midnight, {@code limit} sets the page size, and
+ * {@code cursor} is the {@code nextCursor} returned with the previous page, and {@code tenant}
+ * picks whose calendar to list.
+ */
 @WebServlet("/get-events")
 public class GetEventsServlet extends HttpServlet {
+  private static final int DEFAULT_LIMIT = 100;
+  private static final int MAX_LIMIT = 1000;
+
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    TenantCalendars.Tenant tenant = TenantRequests.getTenant(request, response);
+    if (tenant == null) {
+      return;
+    }
+
+    EventPage page;
+    try {
+      int start = getIntParameter(request, "start", TimeRange.START_OF_DAY);
+      int end = getIntParameter(request, "end", TimeRange.WHOLE_DAY.end());
+      int limit = Math.min(getIntParameter(request, "limit", DEFAULT_LIMIT), MAX_LIMIT);
+      if (start < TimeRange.START_OF_DAY || end > TimeRange.WHOLE_DAY.end() || start > end) {
+        throw new IllegalArgumentException("start and end must be a window within the day");
+      }
+
+      String attendee = request.getParameter("attendee");
+      if (attendee != null && attendee.trim().isEmpty()) {
+        attendee = null;
+      }
+
+      page = tenant.snapshot().getEvents(attendee,
+          TimeRange.fromStartEnd(start, end, false), request.getParameter("cursor"), limit);
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+
     Gson gson = new Gson();
-    String jsonResponse = gson.toJson(Events.events);
+    String jsonResponse = gson.toJson(page);
 
     // Send the JSON back as the response
     response.setContentType("application/json");
     response.getWriter().println(jsonResponse);
   }
+
+  /**
+   * Returns an integer parameter, or {@code defaultValue} if it is missing.
+   */
+  private static int getIntParameter(HttpServletRequest request, String name, int defaultValue) {
+    String value = request.getParameter(name);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(name + " must be an integer", e);
+    }
+  }
 }
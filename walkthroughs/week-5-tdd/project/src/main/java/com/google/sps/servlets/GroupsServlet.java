@@ -0,0 +1,87 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.GroupDirectory;
+import com.google.sps.TenantCalendars;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Lists groups with GET. POST a {@code GroupUpdate} as JSON to replace a group's members, or to
+ * delete the group when {@code members} is missing. A {@code tenant} parameter picks whose groups
+ * to use.
+ */
+@WebServlet("/groups")
+public class GroupsServlet extends HttpServlet {
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    TenantCalendars.Tenant tenant = TenantRequests.getTenant(request, response);
+    if (tenant == null) {
+      return;
+    }
+    GroupDirectory groups = tenant.getGroups();
+    Map<String, Object> json = new LinkedHashMap<>();
+    for (String group : groups.getGroups()) {
+      json.put(group, groups.getMembers(group));
+    }
+
+    // Send the JSON back as the response
+    response.setContentType("application/json");
+    response.getWriter().println(new Gson().toJson(json));
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    GroupUpdate update = new Gson().fromJson(request.getReader(), GroupUpdate.class);
+    if (update == null || update.group == null || !GroupDirectory.isGroup(update.group)) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "group must start with " + GroupDirectory.GROUP_PREFIX);
+      return;
+    }
+
+    TenantCalendars.Tenant tenant = TenantRequests.getTenant(request, response);
+    if (tenant == null) {
+      return;
+    }
+    if (update.members == null) {
+      tenant.removeGroup(update.group);
+    } else {
+      try {
+        tenant.setGroupMembers(update.group, update.members);
+      } catch (TenantCalendars.QuotaExceededException e) {
+        response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+        return;
+      } catch (TenantCalendars.TenantLimitExceededException e) {
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+        return;
+      }
+    }
+    response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+  }
+
+  /** The JSON body of a POST. */
+  private static final class GroupUpdate {
+    private String group;
+    private List<String> members;
+  }
+}
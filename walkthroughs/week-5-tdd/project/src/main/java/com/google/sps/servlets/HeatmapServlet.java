@@ -0,0 +1,143 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.AvailabilityHeatmap;
+import com.google.sps.CalendarSnapshot;
+import com.google.sps.DatastoreCalendar;
+import com.google.sps.GroupDirectory;
+import com.google.sps.TenantCalendars;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Returns how many attendees are free in each bucket of the day. {@code attendees} is a
+ * comma-separated list of names, which may be groups, and defaults to everyone on the calendar;
+ * {@code bucket} is the bucket size in minutes and defaults to 15; {@code tenant} picks whose
+ * calendar to use.
+ *
+ * <p>With a {@code from} parameter such as {@code 2020-07-06}, the heatmap instead covers
+ * {@code days} days from that date, 1 by default and at most 31, read from the calendar stored in
+ * Datastore. The buckets of each day follow those of the day before, and {@code attendees} is
+ * required.
+ */
+@WebServlet("/heatmap")
+public class HeatmapServlet extends HttpServlet {
+  private static final int DEFAULT_BUCKET_MINUTES = 15;
+  private static final int MAX_DAYS = 31;
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    TenantCalendars.Tenant tenant = TenantRequests.getTenant(request, response);
+    if (tenant == null) {
+      return;
+    }
+    int bucketMinutes;
+    try {
+      String bucket = request.getParameter("bucket");
+      bucketMinutes = bucket == null || bucket.trim().isEmpty()
+          ? DEFAULT_BUCKET_MINUTES : Integer.parseInt(bucket.trim());
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "bucket must be an integer");
+      return;
+    }
+    if (bucketMinutes <= 0) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "bucket must be positive");
+      return;
+    }
+
+    String attendeesParam = request.getParameter("attendees");
+    boolean allAttendees = attendeesParam == null || attendeesParam.trim().isEmpty();
+    Collection<String> attendees = allAttendees
+        ? null
+        : expandGroups(tenant.getGroups(),
+            Arrays.asList(attendeesParam.trim().split("\\s*,\\s*")));
+
+    Gson gson = new Gson();
+    JsonObject json = new JsonObject();
+    AvailabilityHeatmap heatmap;
+    String from = request.getParameter("from");
+    if (from != null) {
+      LocalDate date;
+      int days;
+      try {
+        date = LocalDate.parse(from);
+        String daysParam = request.getParameter("days");
+        days = daysParam == null || daysParam.trim().isEmpty()
+            ? 1 : Integer.parseInt(daysParam.trim());
+      } catch (DateTimeParseException | NumberFormatException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        return;
+      }
+      if (days <= 0 || days > MAX_DAYS) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+            "days must be between 1 and " + MAX_DAYS);
+        return;
+      }
+      if (allAttendees) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+            "attendees is required with from");
+        return;
+      }
+      DatastoreCalendar calendar = TenantRequests.getStoredCalendar(request, response);
+      if (calendar == null) {
+        return;
+      }
+      heatmap = calendar.getHeatmap(date, days, attendees, bucketMinutes);
+      json.addProperty("from", date.toString());
+      json.addProperty("days", days);
+    } else {
+      CalendarSnapshot snapshot = tenant.snapshot();
+      heatmap = new AvailabilityHeatmap(AvailabilityHeatmap.bucketsPerDay(bucketMinutes));
+      for (String attendee : allAttendees ? snapshot.getAttendees() : attendees) {
+        heatmap.add(snapshot.getCalendar(attendee).getBusyBuckets(bucketMinutes));
+      }
+    }
+
+    json.addProperty("bucketMinutes", bucketMinutes);
+    json.addProperty("attendees", heatmap.getAttendees());
+    json.add("free", gson.toJsonTree(heatmap.freeCounts()));
+
+    // Send the JSON back as the response
+    response.setContentType("application/json");
+    response.getWriter().println(gson.toJson(json));
+  }
+
+  /**
+   * Replaces each group in {@code names} with the people in it, the way {@code /query} does.
+   * Someone named more than once, directly or through groups, is counted once.
+   */
+  private static Collection<String> expandGroups(GroupDirectory groups, Collection<String> names) {
+    Collection<String> people = new LinkedHashSet<>();
+    for (String name : names) {
+      if (GroupDirectory.isGroup(name)) {
+        people.addAll(groups.expand(name));
+      } else {
+        people.add(name);
+      }
+    }
+    return people;
+  }
+}
@@ -0,0 +1,81 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.EventIngester;
+import com.google.sps.TenantCalendars;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Replaces the calendar with the events in the posted CSV or ICS file. The {@code format}
+ * parameter selects the parser and defaults to CSV; {@code tenant} picks whose calendar to replace.
+ * Files whose events don't fit in the tenant's memory budget are rejected.
+ */
+@WebServlet("/ingest")
+public class IngestServlet extends HttpServlet {
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    TenantCalendars.Tenant tenant = TenantRequests.getTenant(request, response);
+    if (tenant == null) {
+      return;
+    }
+
+    String format = request.getParameter("format");
+    EventIngester.Format ingestFormat =
+        EventIngester.Format.fromName(format == null ? "csv" : format);
+
+    // The ingester splits the input by byte offset, so spool the upload to disk first.
+    Path file = Files.createTempFile("ingest", "." + ingestFormat.name().toLowerCase());
+    try {
+      try (InputStream in = request.getInputStream()) {
+        Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+
+      EventIngester.IngestResult result = new EventIngester().ingest(file, ingestFormat);
+      try {
+        tenant.publish(result.getEvents());
+      } catch (TenantCalendars.QuotaExceededException e) {
+        response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+        return;
+      } catch (TenantCalendars.TenantLimitExceededException e) {
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+        return;
+      }
+
+      JsonObject json = new JsonObject();
+      json.addProperty("events", result.getEvents().size());
+      json.addProperty("skipped", result.getSkipped());
+      json.addProperty("bytes", result.getBytes());
+      json.addProperty("chunks", result.getChunks());
+      json.addProperty("elapsedMillis", result.getElapsedNanos() / 1_000_000);
+      json.addProperty("eventsPerSecond", result.getEventsPerSecond());
+
+      response.setContentType("application/json");
+      response.getWriter().println(new Gson().toJson(json));
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+}
@@ -14,19 +14,28 @@
 
 package com.google.sps.servlets;
 
-import com.google.sps.Events;
+import com.google.sps.CalendarSnapshot;
+import com.google.sps.DatastoreCalendar;
 import com.google.sps.FindMeetingQuery;
 import com.google.sps.MeetingRequest;
+import com.google.sps.TenantCalendars;
 import com.google.sps.TimeRange;
 import com.google.gson.Gson;
 import java.io.IOException;
-import java.util.Arrays;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.Collection;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+/**
+ * Finds the times that work for a meeting request. With a {@code day} parameter such as
+ * {@code 2020-07-06}, the request is answered from the calendar stored in Datastore for that day
+ * instead of the in-memory one. A {@code tenant} parameter picks whose calendar to use, in either
+ * case.
+ */
 @WebServlet("/query")
 public class QueryServlet extends HttpServlet {
   @Override
@@ -36,10 +45,36 @@ public class QueryServlet extends HttpServlet {
     // Convert the JSON to an instance of MeetingRequest.
     MeetingRequest meetingRequest = gson.fromJson(request.getReader(), MeetingRequest.class);
 
-    // Find the possible meeting times.
+    String day = request.getParameter("day");
+    if (day != null) {
+      LocalDate date;
+      try {
+        date = LocalDate.parse(day);
+      } catch (DateTimeParseException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        return;
+      }
+      DatastoreCalendar calendar = TenantRequests.getStoredCalendar(request, response);
+      if (calendar == null) {
+        return;
+      }
+      response.setContentType("application/json");
+      response.getWriter().println(gson.toJson(calendar.query(date, meetingRequest)));
+      return;
+    }
+
+    // Find the possible meeting times against one snapshot of the calendar, so concurrent edits
+    // can't change the events part way through the query. Attendees may name groups.
+    TenantCalendars.Tenant tenant = TenantRequests.getTenant(request, response);
+    if (tenant == null) {
+      return;
+    }
+    long started = System.nanoTime();
+    CalendarSnapshot snapshot = tenant.snapshot();
     FindMeetingQuery findMeetingQuery = new FindMeetingQuery();
     Collection<TimeRange> answer =
-        findMeetingQuery.query(Arrays.asList(Events.events), meetingRequest);
+        findMeetingQuery.query(snapshot, tenant.getGroups(), meetingRequest);
+    tenant.recordQuery(System.nanoTime() - started);
 
     // Convert the times to JSON
     String jsonResponse = gson.toJson(answer);
@@ -0,0 +1,114 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.DatastoreCalendar;
+import com.google.sps.Event;
+import com.google.sps.TimeRange;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Reads and edits the calendar stored in Datastore. GET lists the events of {@code day}. POST
+ * stores the event in the body, {@code {day, title, when, attendees}}, and returns its id. DELETE
+ * removes the event with id {@code id}. A {@code tenant} parameter picks whose calendar to use;
+ * ids are only valid within the tenant that stored the event.
+ */
+@WebServlet("/stored-events")
+public class StoredEventsServlet extends HttpServlet {
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String day = request.getParameter("day");
+    LocalDate date;
+    try {
+      date = LocalDate.parse(day == null ? "" : day);
+    } catch (DateTimeParseException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "day must be a date like 2020-07-06");
+      return;
+    }
+    DatastoreCalendar calendar = TenantRequests.getStoredCalendar(request, response);
+    if (calendar == null) {
+      return;
+    }
+    List<Event> events = calendar.getEvents(date);
+
+    response.setContentType("application/json");
+    response.getWriter().println(new Gson().toJson(events));
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    Gson gson = new Gson();
+    DatastoreCalendar calendar = TenantRequests.getStoredCalendar(request, response);
+    if (calendar == null) {
+      return;
+    }
+
+    long id;
+    try {
+      StoredEvent stored = gson.fromJson(request.getReader(), StoredEvent.class);
+      if (stored == null || stored.day == null) {
+        throw new IllegalArgumentException("day cannot be null");
+      }
+      id = calendar.addEvent(LocalDate.parse(stored.day),
+          new Event(stored.title, stored.when, stored.attendees));
+    } catch (JsonParseException | IllegalArgumentException | DateTimeParseException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+
+    JsonObject json = new JsonObject();
+    json.addProperty("id", id);
+    response.setContentType("application/json");
+    response.getWriter().println(gson.toJson(json));
+  }
+
+  @Override
+  public void doDelete(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    long id;
+    try {
+      id = Long.parseLong(request.getParameter("id"));
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "id must be a number");
+      return;
+    }
+    DatastoreCalendar calendar = TenantRequests.getStoredCalendar(request, response);
+    if (calendar == null) {
+      return;
+    }
+
+    if (!calendar.removeEvent(id)) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+    }
+  }
+
+  /** The JSON body of a POST. */
+  private static final class StoredEvent {
+    private String day;
+    private String title;
+    private TimeRange when;
+    private List<String> attendees;
+  }
+}
@@ -0,0 +1,61 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.DatastoreCalendar;
+import com.google.sps.TenantCalendars;
+import java.io.IOException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Resolves the {@code tenant} parameter that every calendar servlet accepts.
+ */
+final class TenantRequests {
+  private TenantRequests() {}
+
+  /**
+   * Returns the tenant named by the request, or the default tenant if it names none. Sends an
+   * error and returns null if the name is invalid, the tenant's calendar is over its budget, or
+   * there is no room to load another tenant.
+   */
+  static TenantCalendars.Tenant getTenant(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    try {
+      return TenantCalendars.getDefault().get(request.getParameter("tenant"));
+    } catch (TenantCalendars.QuotaExceededException e) {
+      response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+    } catch (TenantCalendars.TenantLimitExceededException e) {
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+    }
+    return null;
+  }
+
+  /**
+   * Returns the Datastore calendar of the tenant named by the request, or of the default tenant
+   * if it names none. Sends an error and returns null if the name is invalid.
+   */
+  static DatastoreCalendar getStoredCalendar(
+      HttpServletRequest request, HttpServletResponse response) throws IOException {
+    try {
+      return DatastoreCalendar.forTenant(request.getParameter("tenant"));
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return null;
+    }
+  }
+}
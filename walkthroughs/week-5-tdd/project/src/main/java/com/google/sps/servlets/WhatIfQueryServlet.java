@@ -0,0 +1,108 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.CalendarOverlay;
+import com.google.sps.CalendarSnapshot;
+import com.google.sps.Event;
+import com.google.sps.FindMeetingQuery;
+import com.google.sps.MeetingRequest;
+import com.google.sps.TenantCalendars;
+import com.google.sps.TimeRange;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Answers a meeting request as if some events were added to or removed from the calendar. The
+ * body is a {@code WhatIfRequest}: the usual meeting request plus the hypothetical events, in the
+ * same shape that {@code /get-events} returns them. A {@code tenant} parameter picks whose
+ * calendar to use.
+ */
+@WebServlet("/what-if")
+public class WhatIfQueryServlet extends HttpServlet {
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    Gson gson = new Gson();
+
+    CalendarOverlay overlay;
+    WhatIfRequest whatIf;
+    try {
+      whatIf = gson.fromJson(request.getReader(), WhatIfRequest.class);
+      if (whatIf == null || whatIf.request == null) {
+        throw new IllegalArgumentException("request cannot be null");
+      }
+      overlay = new CalendarOverlay(toEvents(whatIf.add), toEvents(whatIf.remove));
+    } catch (JsonParseException | IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+
+    TenantCalendars.Tenant tenant = TenantRequests.getTenant(request, response);
+    if (tenant == null) {
+      return;
+    }
+    long started = System.nanoTime();
+    CalendarSnapshot snapshot = tenant.snapshot();
+    FindMeetingQuery findMeetingQuery = new FindMeetingQuery();
+    Collection<TimeRange> answer =
+        findMeetingQuery.query(snapshot, tenant.getGroups(), whatIf.request, overlay);
+    tenant.recordQuery(System.nanoTime() - started);
+
+    // Send the JSON back as the response
+    response.setContentType("application/json");
+    response.getWriter().println(gson.toJson(answer));
+  }
+
+  /**
+   * Builds events through the {@code Event} constructor so missing fields are rejected.
+   */
+  private static Collection<Event> toEvents(List<EventJson> json) {
+    if (json == null) {
+      return Collections.emptyList();
+    }
+
+    Collection<Event> events = new ArrayList<>();
+    for (EventJson event : json) {
+      if (event == null) {
+        throw new IllegalArgumentException("events cannot be null");
+      }
+      events.add(new Event(event.title, event.when, event.attendees));
+    }
+    return events;
+  }
+
+  /** The JSON body of a POST. */
+  private static final class WhatIfRequest {
+    private MeetingRequest request;
+    private List<EventJson> add;
+    private List<EventJson> remove;
+  }
+
+  /** An event as it appears in JSON. */
+  private static final class EventJson {
+    private String title;
+    private TimeRange when;
+    private List<String> attendees;
+  }
+}
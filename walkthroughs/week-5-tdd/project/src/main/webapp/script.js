@@ -120,19 +120,59 @@ class TimeRange {
 }
 
 /**
- * Get all the events that the server knows about. This will tell us who the
- * server knows about and when they are busy.
+ * The most events the server returns in one page.
  */
-function getAllEvents() {
-  return fetch('/get-events', {method: 'GET'})
+const EVENTS_PAGE_LIMIT = 1000;
+
+/**
+ * Get the events that the chart shows: the ones in the chosen time window,
+ * optionally only those of one attendee. The server returns events a page at
+ * a time, so keep following the cursor until there are no pages left.
+ */
+function getVisibleEvents() {
+  const params = new URLSearchParams();
+  params.append('start', inputToMinutes('timeline-start', 0));
+  params.append('end', inputToMinutes('timeline-end', 24 * 60));
+  params.append('limit', EVENTS_PAGE_LIMIT);
+  const attendee = document.getElementById('timeline-attendee').value.trim();
+  if (attendee) {
+    params.append('attendee', attendee);
+  }
+  return getEventsPage(params, null, []);
+}
+
+/**
+ * Reads a time input as minutes since midnight, or returns defaultMinutes if
+ * it is empty.
+ */
+function inputToMinutes(id, defaultMinutes) {
+  const value = document.getElementById(id).value;
+  if (!value) {
+    return defaultMinutes;
+  }
+  const [hours, minutes] = value.split(':').map(Number);
+  return hours * 60 + minutes;
+}
+
+/**
+ * Fetches the page of events after the given cursor and appends it to events.
+ * Resolves to every event once the last page has been fetched.
+ */
+function getEventsPage(params, cursor, events) {
+  const pageParams = new URLSearchParams(params);
+  if (cursor) {
+    pageParams.append('cursor', cursor);
+  }
+  return fetch('/get-events?' + pageParams.toString(), {method: 'GET'})
       .then((response) => {
         return response.json();
       })
-      .then((events) => {
-        return events.map((event) => {
+      .then((page) => {
+        for (const event of page.events) {
           const time = new TimeRange(event.when.start, event.when.duration);
-          return new Event(event.title, time, event.attendees);
-        });
+          events.push(new Event(event.title, time, event.attendees));
+        }
+        return page.nextCursor ? getEventsPage(params, page.nextCursor, events) : events;
       });
 }
 
@@ -180,11 +220,11 @@ function getUniquePeople(events) {
 
 /**
  * Initializes and renders the chart at the top of the page, showing who is busy
- * and when.
+ * and when in the chosen time window.
  */
 function initializeChart() {
   const container = document.getElementById('timeline');
-  getAllEvents().then((events) => {
+  getVisibleEvents().then((events) => {
     initializeChartWithEvents(container, events);
   });
 }
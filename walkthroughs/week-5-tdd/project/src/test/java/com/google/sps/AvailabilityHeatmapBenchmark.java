@@ -0,0 +1,101 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how long {@code /heatmap?from=...&days=30} takes for a large group: reading every
+ * attendee's busy entities for a month from Datastore and counting them into a heatmap. It runs
+ * against the local Datastore, so the reads cost less than in production and the numbers are best
+ * compared with each other. This is not a test; run it after {@code mvn test-compile} with
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:$(mvn -q dependency:build-classpath \
+ *     -Dmdep.outputFile=/dev/stdout) com.google.sps.AvailabilityHeatmapBenchmark [attendees]
+ * </pre>
+ */
+public final class AvailabilityHeatmapBenchmark {
+  private static final int DEFAULT_ATTENDEES = 2_000;
+  private static final int DAYS = 30;
+  private static final int BUCKET_MINUTES = 15;
+  private static final LocalDate FROM = LocalDate.of(2020, 7, 1);
+  private static final int WARMUP_RUNS = 5;
+  private static final int MEASURED_RUNS = 20;
+
+  public static void main(String[] args) {
+    int attendees = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ATTENDEES;
+    LocalServiceTestHelper helper = new LocalServiceTestHelper(
+        new LocalDatastoreServiceTestConfig().setNoStorage(true));
+    helper.setUp();
+    try {
+      DatastoreCalendar calendar =
+          new DatastoreCalendar(DatastoreServiceFactory.getDatastoreService());
+      List<String> people = new ArrayList<>();
+      for (int i = 0; i < attendees; i++) {
+        people.add("Person " + i);
+      }
+
+      // Each attendee has a handful of meetings on each day of the month, shared with others.
+      long seedStart = System.nanoTime();
+      Random random = new Random(29);
+      for (int day = 0; day < DAYS; day++) {
+        for (int meeting = 0; meeting < 4; meeting++) {
+          List<String> shuffled = new ArrayList<>(people);
+          Collections.shuffle(shuffled, random);
+          for (int i = 0; i < shuffled.size(); i += DatastoreCalendar.MAX_ATTENDEES) {
+            int start = TimeRange.getTimeInMinutes(8, 0) + 15 * random.nextInt(40);
+            calendar.addEvent(FROM.plusDays(day), new Event("Meeting",
+                TimeRange.fromStartDuration(start, 15 * (random.nextInt(4) + 1)),
+                shuffled.subList(i, Math.min(i + DatastoreCalendar.MAX_ATTENDEES,
+                    shuffled.size()))));
+          }
+        }
+      }
+      System.out.printf("seeded %d attendees x %d days in %.1f s%n",
+          attendees, DAYS, (System.nanoTime() - seedStart) / 1e9);
+
+      for (int run = 0; run < WARMUP_RUNS; run++) {
+        calendar.getHeatmap(FROM, DAYS, people, BUCKET_MINUTES);
+      }
+
+      long[] nanos = new long[MEASURED_RUNS];
+      long checksum = 0;
+      for (int run = 0; run < MEASURED_RUNS; run++) {
+        long start = System.nanoTime();
+        int[] free = calendar.getHeatmap(FROM, DAYS, people, BUCKET_MINUTES).freeCounts();
+        nanos[run] = System.nanoTime() - start;
+        checksum += free[free.length / 2 + 40];
+      }
+      Arrays.sort(nanos);
+
+      System.out.printf("%d attendees x %d days of %d minute buckets%n",
+          attendees, DAYS, BUCKET_MINUTES);
+      System.out.printf("median %.2f ms, p90 %.2f ms, max %.2f ms (checksum %d)%n",
+          nanos[MEASURED_RUNS / 2] / 1e6, nanos[MEASURED_RUNS * 9 / 10] / 1e6,
+          nanos[MEASURED_RUNS - 1] / 1e6, checksum);
+    } finally {
+      helper.tearDown();
+    }
+  }
+}
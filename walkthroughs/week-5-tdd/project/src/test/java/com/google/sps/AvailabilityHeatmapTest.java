@@ -0,0 +1,115 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class AvailabilityHeatmapTest {
+  private static final String PERSON_A = "Person A";
+  private static final String PERSON_B = "Person B";
+
+  private static final int TIME_0800AM = TimeRange.getTimeInMinutes(8, 0);
+  private static final int TIME_0830AM = TimeRange.getTimeInMinutes(8, 30);
+  private static final int TIME_0900AM = TimeRange.getTimeInMinutes(9, 0);
+
+  private static final int BUCKET_15_MINUTES = 15;
+  private static final int BUCKETS_PER_DAY = 96;
+
+  @Test
+  public void busyBucketsCoverPartialOverlap() {
+    // 8:00 - 8:31 touches the 8:30 bucket, so three buckets are busy.
+    List<Event> events = Arrays.asList(new Event("Event 1",
+        TimeRange.fromStartEnd(TIME_0800AM, TIME_0830AM + 1, false), Arrays.asList(PERSON_A)));
+
+    long[] busy = AvailabilityHeatmap.busyBuckets(events, BUCKET_15_MINUTES);
+
+    Assert.assertEquals(2, busy.length);
+    Assert.assertEquals(0b111L << (TIME_0800AM / BUCKET_15_MINUTES), busy[0]);
+    Assert.assertEquals(0, busy[1]);
+  }
+
+  @Test
+  public void countsFreeAttendeesPerBucket() {
+    CalendarSnapshot snapshot = CalendarSnapshot.of(Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartEnd(TIME_0800AM, TIME_0900AM, false),
+            Arrays.asList(PERSON_A, PERSON_B)),
+        new Event("Event 2", TimeRange.fromStartEnd(TIME_0900AM, TimeRange.END_OF_DAY, true),
+            Arrays.asList(PERSON_A))));
+
+    AvailabilityHeatmap heatmap = new AvailabilityHeatmap(BUCKETS_PER_DAY);
+    for (String person : Arrays.asList(PERSON_A, PERSON_B, "Person C")) {
+      heatmap.add(snapshot.getCalendar(person).getBusyBuckets(BUCKET_15_MINUTES));
+    }
+    int[] free = heatmap.freeCounts();
+
+    Assert.assertEquals(BUCKETS_PER_DAY, free.length);
+    Assert.assertEquals(3, free[0]);
+    Assert.assertEquals(1, free[TIME_0800AM / BUCKET_15_MINUTES]);
+    Assert.assertEquals(2, free[TIME_0900AM / BUCKET_15_MINUTES]);
+    Assert.assertEquals(2, free[BUCKETS_PER_DAY - 1]);
+  }
+
+  @Test
+  public void emptyHeatmapHasNoFreeAttendees() {
+    int[] free = new AvailabilityHeatmap(BUCKETS_PER_DAY).freeCounts();
+
+    Assert.assertEquals(BUCKETS_PER_DAY, free.length);
+    Assert.assertEquals(0, Arrays.stream(free).max().getAsInt());
+  }
+
+  @Test
+  public void bitsPastLastBucketAreIgnored() {
+    AvailabilityHeatmap heatmap = new AvailabilityHeatmap(70);
+    heatmap.add(new long[] {0, -1L});
+
+    int[] free = heatmap.freeCounts();
+
+    Assert.assertEquals(70, free.length);
+    Assert.assertEquals(1, free[0]);
+    Assert.assertEquals(0, free[69]);
+  }
+
+  @Test
+  public void matchesNaiveCountForMonthOfBuckets() {
+    // 30 days of 15 minute buckets for a large group.
+    int buckets = 30 * BUCKETS_PER_DAY;
+    int attendees = 10_000;
+    Random random = new Random(29);
+
+    AvailabilityHeatmap heatmap = new AvailabilityHeatmap(buckets);
+    int[] expected = new int[buckets];
+    for (int attendee = 0; attendee < attendees; attendee++) {
+      long[] busy = new long[AvailabilityHeatmap.wordsFor(buckets)];
+      for (int word = 0; word < busy.length; word++) {
+        busy[word] = random.nextLong() & random.nextLong();
+      }
+      for (int bucket = 0; bucket < buckets; bucket++) {
+        if ((busy[bucket >>> 6] & (1L << bucket)) == 0) {
+          expected[bucket]++;
+        }
+      }
+      heatmap.add(busy);
+    }
+
+    Assert.assertArrayEquals(expected, heatmap.freeCounts());
+  }
+}
@@ -0,0 +1,130 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class CalendarOverlayTest {
+  private static final String PERSON_A = "Person A";
+  private static final String PERSON_B = "Person B";
+
+  private static final String GROUP_TEAM = "group:team";
+
+  private static final int TIME_0800AM = TimeRange.getTimeInMinutes(8, 0);
+  private static final int TIME_0900AM = TimeRange.getTimeInMinutes(9, 0);
+  private static final int TIME_1000AM = TimeRange.getTimeInMinutes(10, 0);
+
+  private static final int DURATION_60_MINUTES = 60;
+
+  private static final Event EVENT_A = new Event("Event 1",
+      TimeRange.fromStartDuration(TIME_0900AM, DURATION_60_MINUTES), Arrays.asList(PERSON_A));
+  private static final Event EVENT_B = new Event("Event 2",
+      TimeRange.fromStartDuration(TIME_0800AM, DURATION_60_MINUTES), Arrays.asList(PERSON_B));
+
+  private final FindMeetingQuery query = new FindMeetingQuery();
+  private final GroupDirectory groups = new GroupDirectory();
+
+  @Test
+  public void removingEventOpensSlot() {
+    CalendarSnapshot snapshot = CalendarSnapshot.of(Arrays.asList(EVENT_A, EVENT_B));
+    MeetingRequest request =
+        new MeetingRequest(Arrays.asList(PERSON_A), TimeRange.WHOLE_DAY.duration());
+    CalendarOverlay overlay = new CalendarOverlay(Collections.emptySet(), Arrays.asList(EVENT_A));
+
+    Assert.assertEquals(Collections.emptyList(), query.query(snapshot, request));
+    Assert.assertEquals(Arrays.asList(TimeRange.WHOLE_DAY),
+        query.query(snapshot, groups, request, overlay));
+    Assert.assertEquals(Arrays.asList(EVENT_A), snapshot.getCalendar(PERSON_A).getEvents());
+  }
+
+  @Test
+  public void addingEventClosesSlot() {
+    CalendarSnapshot snapshot = CalendarSnapshot.of(Arrays.asList(EVENT_A));
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_60_MINUTES);
+    Event moved = new Event("Event 1",
+        TimeRange.fromStartDuration(TIME_1000AM, DURATION_60_MINUTES), Arrays.asList(PERSON_A));
+    CalendarOverlay overlay = new CalendarOverlay(Arrays.asList(moved), Arrays.asList(EVENT_A));
+
+    Collection<TimeRange> expected = Arrays.asList(
+        TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_1000AM, false),
+        TimeRange.fromStartEnd(TIME_1000AM + DURATION_60_MINUTES, TimeRange.END_OF_DAY, true));
+
+    Assert.assertEquals(expected, query.query(snapshot, groups, request, overlay));
+  }
+
+  @Test
+  public void overlayOnGroupMemberIsApplied() {
+    groups.setMembers(GROUP_TEAM, Arrays.asList(PERSON_A, PERSON_B));
+    CalendarSnapshot snapshot = CalendarSnapshot.of(Arrays.asList(EVENT_A, EVENT_B));
+    MeetingRequest request = new MeetingRequest(Arrays.asList(GROUP_TEAM), DURATION_60_MINUTES);
+    CalendarOverlay overlay = new CalendarOverlay(Collections.emptySet(), Arrays.asList(EVENT_B));
+
+    Collection<TimeRange> expected = Arrays.asList(
+        TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_0900AM, false),
+        TimeRange.fromStartEnd(TIME_1000AM, TimeRange.END_OF_DAY, true));
+
+    Assert.assertEquals(expected, query.query(snapshot, groups, request, overlay));
+  }
+
+  @Test
+  public void overlayMatchesQueryOfChangedCalendar() {
+    Random random = new Random(32);
+    for (int i = 0; i < 500; i++) {
+      List<Event> events = randomEvents(random, 15);
+      List<Event> added = randomEvents(random, 3);
+      List<Event> removed = new ArrayList<>();
+      for (Event event : events) {
+        if (random.nextInt(4) == 0) {
+          removed.add(event);
+        }
+      }
+
+      MeetingRequest request =
+          new MeetingRequest(Arrays.asList(randomPerson(random)), 1 + random.nextInt(120));
+      request.addOptionalAttendee(randomPerson(random));
+
+      CalendarSnapshot snapshot = CalendarSnapshot.of(events);
+      CalendarOverlay overlay = new CalendarOverlay(added, removed);
+
+      Assert.assertEquals("case " + i, query.query(snapshot.with(added, removed), request),
+          query.query(snapshot, groups, request, overlay));
+    }
+  }
+
+  private static List<Event> randomEvents(Random random, int count) {
+    List<Event> events = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      int start = random.nextInt(TimeRange.WHOLE_DAY.duration() - 200);
+      events.add(new Event("Event " + i,
+          TimeRange.fromStartDuration(start, 1 + random.nextInt(180)),
+          Arrays.asList(randomPerson(random), randomPerson(random))));
+    }
+    return events;
+  }
+
+  private static String randomPerson(Random random) {
+    return "Person " + random.nextInt(5);
+  }
+}
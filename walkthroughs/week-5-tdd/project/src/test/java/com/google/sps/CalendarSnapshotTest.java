@@ -0,0 +1,159 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class CalendarSnapshotTest {
+  private static final String PERSON_A = "Person A";
+  private static final String PERSON_B = "Person B";
+
+  private static final int TIME_0800AM = TimeRange.getTimeInMinutes(8, 0);
+  private static final int TIME_0900AM = TimeRange.getTimeInMinutes(9, 0);
+  private static final int TIME_1000AM = TimeRange.getTimeInMinutes(10, 0);
+
+  private static final int DURATION_30_MINUTES = 30;
+
+  private static final Event EVENT_A = new Event("Event 1",
+      TimeRange.fromStartDuration(TIME_0900AM, DURATION_30_MINUTES), Arrays.asList(PERSON_A));
+  private static final Event EVENT_B = new Event("Event 2",
+      TimeRange.fromStartDuration(TIME_0800AM, DURATION_30_MINUTES), Arrays.asList(PERSON_B));
+  private static final Event EVENT_AB = new Event("Event 3",
+      TimeRange.fromStartDuration(TIME_1000AM, DURATION_30_MINUTES),
+      Arrays.asList(PERSON_A, PERSON_B));
+  private static final Event EVENT_NOBODY = new Event("Event 4",
+      TimeRange.fromStartDuration(TIME_1000AM, DURATION_30_MINUTES), Collections.emptySet());
+
+  @Test
+  public void eventsAreSortedAndIncludedOnce() {
+    CalendarSnapshot snapshot =
+        CalendarSnapshot.of(Arrays.asList(EVENT_AB, EVENT_A, EVENT_B, EVENT_NOBODY));
+
+    List<Event> events = snapshot.getEvents();
+
+    Assert.assertEquals(4, events.size());
+    Assert.assertEquals(EVENT_B, events.get(0));
+    Assert.assertEquals(EVENT_A, events.get(1));
+    Assert.assertTrue(events.containsAll(Arrays.asList(EVENT_AB, EVENT_NOBODY)));
+    Assert.assertEquals(Arrays.asList(EVENT_A, EVENT_AB),
+        snapshot.getCalendar(PERSON_A).getEvents());
+  }
+
+  @Test
+  public void changesLeaveOldSnapshotUntouched() {
+    CalendarSnapshot before = CalendarSnapshot.of(Arrays.asList(EVENT_A, EVENT_B));
+
+    CalendarSnapshot after =
+        before.with(Arrays.asList(EVENT_AB), Arrays.asList(EVENT_B));
+
+    Assert.assertEquals(Arrays.asList(EVENT_B, EVENT_A), before.getEvents());
+    Assert.assertEquals(Arrays.asList(EVENT_A, EVENT_AB), after.getEvents());
+    Assert.assertTrue(after.getVersion() > before.getVersion());
+  }
+
+  @Test
+  public void untouchedAttendeesAreShared() {
+    CalendarSnapshot before = CalendarSnapshot.of(Arrays.asList(EVENT_A, EVENT_B));
+
+    CalendarSnapshot after = before.with(Collections.emptySet(), Arrays.asList(EVENT_B));
+
+    Assert.assertSame(before.getCalendar(PERSON_A), after.getCalendar(PERSON_A));
+    Assert.assertFalse(after.getAttendees().contains(PERSON_B));
+  }
+
+  @Test
+  public void removingOneOfTwoEqualEventsKeepsTheOther() {
+    Event busy1 = new Event("Busy",
+        TimeRange.fromStartDuration(TIME_0900AM, DURATION_30_MINUTES), Arrays.asList(PERSON_A));
+    Event busy2 = new Event("Busy",
+        TimeRange.fromStartDuration(TIME_0900AM, DURATION_30_MINUTES), Arrays.asList(PERSON_A));
+    Event later = new Event("Busy",
+        TimeRange.fromStartDuration(TIME_1000AM, DURATION_30_MINUTES), Arrays.asList(PERSON_A));
+    CalendarSnapshot before = CalendarSnapshot.of(Arrays.asList(busy1, busy2));
+
+    CalendarSnapshot after = before.with(Arrays.asList(later, EVENT_B), Arrays.asList(busy2));
+
+    Assert.assertEquals(Arrays.asList(busy1, later), after.getCalendar(PERSON_A).getEvents());
+    Assert.assertEquals(2, before.getEvents(Arrays.asList(PERSON_A)).size());
+  }
+
+  @Test
+  public void editsMergeIntoSortedCalendars() {
+    List<Event> events = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      events.add(
+          new Event("Busy", TimeRange.fromStartDuration(i * 20, 10), Arrays.asList(PERSON_A)));
+    }
+    CalendarSnapshot before = CalendarSnapshot.of(events);
+
+    List<Event> added = new ArrayList<>();
+    for (int i = 0; i < 50; i += 2) {
+      added.add(new Event("Busy", TimeRange.fromStartDuration(i * 20 + 5, 10),
+          Arrays.asList(PERSON_A)));
+    }
+    CalendarSnapshot after = before.with(added, events.subList(0, 25));
+
+    List<Event> expected = new ArrayList<>(events.subList(25, 50));
+    expected.addAll(added);
+    Collections.sort(expected, CalendarSnapshot.ORDER_BY_START);
+    Assert.assertEquals(expected, after.getCalendar(PERSON_A).getEvents());
+  }
+
+  @Test
+  public void queryAgainstSnapshotMatchesQueryAgainstEvents() {
+    Collection<Event> events = Arrays.asList(EVENT_A, EVENT_B, EVENT_AB);
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_30_MINUTES);
+    request.addOptionalAttendee(PERSON_B);
+
+    FindMeetingQuery query = new FindMeetingQuery();
+
+    Assert.assertEquals(query.query(events, request),
+        query.query(CalendarSnapshot.of(events), request));
+  }
+
+  @Test
+  public void concurrentWritersAreAllApplied() throws InterruptedException {
+    CalendarStore store = new CalendarStore(Collections.emptySet());
+    CalendarSnapshot pinned = store.snapshot();
+
+    List<Thread> writers = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      String person = "Person " + i;
+      Thread writer = new Thread(() -> {
+        for (int j = 0; j < 100; j++) {
+          store.add(new Event("Event " + j,
+              TimeRange.fromStartDuration(j, DURATION_30_MINUTES), Arrays.asList(person)));
+        }
+      });
+      writers.add(writer);
+      writer.start();
+    }
+    for (Thread writer : writers) {
+      writer.join();
+    }
+
+    Assert.assertEquals(400, store.getEvents().size());
+    Assert.assertEquals(0, pinned.getEvents().size());
+  }
+}
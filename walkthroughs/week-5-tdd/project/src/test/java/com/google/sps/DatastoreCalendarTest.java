@@ -0,0 +1,260 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class DatastoreCalendarTest {
+  private static final String PERSON_A = "Person A";
+  private static final String PERSON_B = "Person B";
+  private static final String PERSON_C = "Person C";
+
+  private static final LocalDate MONDAY = LocalDate.of(2020, 7, 6);
+  private static final LocalDate TUESDAY = LocalDate.of(2020, 7, 7);
+
+  private static final int TIME_0800AM = TimeRange.getTimeInMinutes(8, 0);
+  private static final int TIME_0900AM = TimeRange.getTimeInMinutes(9, 0);
+  private static final int TIME_1000AM = TimeRange.getTimeInMinutes(10, 0);
+
+  private static final int DURATION_60_MINUTES = 60;
+
+  private static final Event EVENT_AB = new Event("Event 1",
+      TimeRange.fromStartDuration(TIME_0800AM, DURATION_60_MINUTES),
+      Arrays.asList(PERSON_A, PERSON_B));
+  private static final Event EVENT_B = new Event("Event 2",
+      TimeRange.fromStartDuration(TIME_0900AM, DURATION_60_MINUTES), Arrays.asList(PERSON_B));
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(
+      new LocalDatastoreServiceTestConfig().setApplyAllHighRepJobPolicy());
+
+  private DatastoreService datastore;
+  private DatastoreCalendar calendar;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    calendar = new DatastoreCalendar(datastore);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void busyEntitiesFollowEvents() {
+    long id = calendar.addEvent(MONDAY, EVENT_AB);
+    calendar.addEvent(MONDAY, EVENT_B);
+
+    Assert.assertEquals(2, countEntities(DatastoreCalendar.BUSY_KIND));
+    Assert.assertEquals(Arrays.asList(EVENT_AB, EVENT_B), calendar.getEvents(MONDAY));
+    Assert.assertEquals(2, calendar.getBusyEvents(MONDAY, Arrays.asList(PERSON_B)).size());
+
+    Assert.assertTrue(calendar.removeEvent(id));
+    Assert.assertFalse(calendar.removeEvent(id));
+
+    // Person A has nothing left, so their busy entity is deleted.
+    Assert.assertEquals(1, countEntities(DatastoreCalendar.BUSY_KIND));
+    Assert.assertEquals(Arrays.asList(EVENT_B), calendar.getEvents(MONDAY));
+    Assert.assertEquals(Collections.emptyList(),
+        calendar.getBusyEvents(MONDAY, Arrays.asList(PERSON_A)));
+  }
+
+  @Test
+  public void daysAreKeptApart() {
+    calendar.addEvent(MONDAY, EVENT_AB);
+
+    Assert.assertEquals(Collections.emptyList(), calendar.getEvents(TUESDAY));
+    Assert.assertEquals(Arrays.asList(TimeRange.WHOLE_DAY), calendar.query(TUESDAY,
+        new MeetingRequest(Arrays.asList(PERSON_A), DURATION_60_MINUTES)));
+  }
+
+  @Test
+  public void queryOnlyReadsRequestedAttendees() {
+    calendar.addEvent(MONDAY, EVENT_AB);
+    calendar.addEvent(MONDAY, EVENT_B);
+    calendar.addEvent(MONDAY, new Event("Event 3",
+        TimeRange.fromStartDuration(TIME_1000AM, DURATION_60_MINUTES), Arrays.asList(PERSON_C)));
+
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_60_MINUTES);
+    request.addOptionalAttendee(PERSON_B);
+
+    Collection<TimeRange> expected = Arrays.asList(
+        TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_0800AM, false),
+        TimeRange.fromStartEnd(TIME_1000AM, TimeRange.END_OF_DAY, true));
+
+    Assert.assertEquals(expected, calendar.query(MONDAY, request));
+  }
+
+  @Test
+  public void queryMatchesInMemoryCalendar() {
+    Random random = new Random(34);
+    List<Event> events = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      int start = random.nextInt(TimeRange.WHOLE_DAY.end() - 200);
+      Event event = new Event("Event " + i,
+          TimeRange.fromStartDuration(start, random.nextInt(180)),
+          Arrays.asList("Person " + random.nextInt(5), "Person " + random.nextInt(5)));
+      events.add(event);
+      calendar.addEvent(MONDAY, event);
+    }
+
+    FindMeetingQuery query = new FindMeetingQuery();
+    for (int i = 0; i < 50; i++) {
+      MeetingRequest request = new MeetingRequest(
+          Arrays.asList("Person " + random.nextInt(5)), 1 + random.nextInt(120));
+      request.addOptionalAttendee("Person " + random.nextInt(5));
+
+      Assert.assertEquals(query.query(events, request), calendar.query(MONDAY, request));
+    }
+  }
+
+  @Test
+  public void heatmapCoversEachDayOfTheRange() {
+    calendar.addEvent(MONDAY, EVENT_AB);
+    calendar.addEvent(TUESDAY, EVENT_B);
+    int bucketsPerDay = AvailabilityHeatmap.bucketsPerDay(DURATION_60_MINUTES);
+
+    int[] free = calendar.getHeatmap(MONDAY, 2, Arrays.asList(PERSON_A, PERSON_B, PERSON_C),
+        DURATION_60_MINUTES).freeCounts();
+
+    Assert.assertEquals(2 * bucketsPerDay, free.length);
+    Assert.assertEquals(1, free[8]);
+    Assert.assertEquals(3, free[9]);
+    Assert.assertEquals(3, free[bucketsPerDay + 8]);
+    Assert.assertEquals(2, free[bucketsPerDay + 9]);
+  }
+
+  @Test
+  public void heatmapReadsLargeGroupsInBatches() {
+    List<String> attendees = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      attendees.add("Person " + i);
+    }
+    // The last attendee falls in a later batch than the first.
+    calendar.addEvent(TUESDAY, new Event("Event 1", TimeRange.fromStartDuration(0, 60),
+        Arrays.asList(attendees.get(0), attendees.get(199))));
+
+    int[] free = calendar.getHeatmap(MONDAY, 30, attendees, DURATION_60_MINUTES).freeCounts();
+
+    int bucketsPerDay = AvailabilityHeatmap.bucketsPerDay(DURATION_60_MINUTES);
+    Assert.assertEquals(200, free[0]);
+    Assert.assertEquals(198, free[bucketsPerDay]);
+    Assert.assertEquals(200, free[bucketsPerDay + 1]);
+  }
+
+  @Test
+  public void tenantsAreKeptApart() {
+    DatastoreCalendar tenant1 = new DatastoreCalendar(datastore, "tenant-1");
+    DatastoreCalendar tenant2 = new DatastoreCalendar(datastore, "tenant-2");
+    long id = tenant1.addEvent(MONDAY, EVENT_AB);
+
+    Assert.assertEquals(Arrays.asList(EVENT_AB), tenant1.getEvents(MONDAY));
+    Assert.assertEquals(Collections.emptyList(), tenant2.getEvents(MONDAY));
+    Assert.assertEquals(Collections.emptyList(), calendar.getEvents(MONDAY));
+    Assert.assertEquals(Arrays.asList(TimeRange.WHOLE_DAY), tenant2.query(MONDAY,
+        new MeetingRequest(Arrays.asList(PERSON_A), DURATION_60_MINUTES)));
+
+    // Another tenant can't remove the event by guessing its id.
+    Assert.assertFalse(tenant2.removeEvent(id));
+    Assert.assertTrue(tenant1.removeEvent(id));
+  }
+
+  @Test
+  public void defaultTenantUsesDefaultNamespace() {
+    calendar.addEvent(MONDAY, EVENT_B);
+
+    Assert.assertEquals(Arrays.asList(EVENT_B),
+        DatastoreCalendar.forTenant(null).getEvents(MONDAY));
+    Assert.assertEquals(Arrays.asList(EVENT_B),
+        DatastoreCalendar.forTenant(TenantCalendars.DEFAULT_TENANT).getEvents(MONDAY));
+    Assert.assertEquals(Collections.emptyList(),
+        DatastoreCalendar.forTenant("other").getEvents(MONDAY));
+  }
+
+  @Test
+  public void savedCalendarIsLoadedBack() {
+    Assert.assertNull(calendar.loadCalendar());
+
+    List<Event> events = new ArrayList<>();
+    for (int i = 0; i < 1200; i++) {
+      events.add(new Event("Event " + i, TimeRange.fromStartDuration(i % 1400, 1 + i % 60),
+          i % 3 == 0 ? Collections.<String>emptyList() : Arrays.asList("Person " + i, PERSON_A)));
+    }
+    calendar.saveCalendar(events);
+    Assert.assertEquals(events, calendar.loadCalendar());
+    Assert.assertEquals(3, countEntities(DatastoreCalendar.CHUNK_KIND));
+
+    // Saving again replaces the old chunks rather than adding to them.
+    calendar.saveCalendar(Arrays.asList(EVENT_AB));
+    Assert.assertEquals(Arrays.asList(EVENT_AB), calendar.loadCalendar());
+    Assert.assertEquals(1, countEntities(DatastoreCalendar.CHUNK_KIND));
+
+    calendar.saveCalendar(Collections.<Event>emptyList());
+    Assert.assertEquals(Collections.emptyList(), calendar.loadCalendar());
+    Assert.assertNull(new DatastoreCalendar(datastore, "tenant-1").loadCalendar());
+  }
+
+  @Test
+  public void groupsAreSavedPerTenant() {
+    DatastoreCalendar tenant1 = new DatastoreCalendar(datastore, "tenant-1");
+    tenant1.saveGroup("group:team", Arrays.asList(PERSON_A, PERSON_B));
+    tenant1.saveGroup("group:gone", Arrays.asList(PERSON_C));
+    tenant1.saveGroup("group:team", Arrays.asList(PERSON_B));
+    tenant1.removeGroup("group:gone");
+
+    Assert.assertEquals(Collections.singletonMap("group:team", Arrays.asList(PERSON_B)),
+        tenant1.loadGroups());
+    Assert.assertEquals(Collections.emptyMap(), calendar.loadGroups());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidTenantIsRejected() {
+    DatastoreCalendar.forTenant("../other");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void tooManyAttendeesIsRejected() {
+    List<String> attendees = new ArrayList<>();
+    for (int i = 0; i <= DatastoreCalendar.MAX_ATTENDEES; i++) {
+      attendees.add("Person " + i);
+    }
+    calendar.addEvent(MONDAY, new Event("Event", TimeRange.WHOLE_DAY, attendees));
+  }
+
+  private int countEntities(String kind) {
+    return datastore.prepare(new Query(kind)).countEntities(FetchOptions.Builder.withDefaults());
+  }
+}
@@ -0,0 +1,158 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class EventIngesterTest {
+  private static final String PERSON_A = "Person A";
+  private static final String PERSON_B = "Person B";
+
+  private static final int TIME_0800AM = TimeRange.getTimeInMinutes(8, 0);
+  private static final int TIME_0830AM = TimeRange.getTimeInMinutes(8, 30);
+  private static final int TIME_0900AM = TimeRange.getTimeInMinutes(9, 0);
+  private static final int TIME_1000AM = TimeRange.getTimeInMinutes(10, 0);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path write(String name, String contents) throws IOException {
+    Path file = folder.newFile(name).toPath();
+    Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  @Test
+  public void parsesCsvRows() throws IOException {
+    Path file = write("events.csv", "title,start,end,attendees\n"
+        + "Event 1,08:00,08:30,Person A;Person B\n"
+        + "\"Standup, daily\",540,600,Person A\r\n");
+
+    EventIngester.IngestResult result =
+        new EventIngester().ingest(file, EventIngester.Format.CSV);
+
+    List<Event> expected = Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartEnd(TIME_0800AM, TIME_0830AM, false),
+            Arrays.asList(PERSON_A, PERSON_B)),
+        new Event("Standup, daily", TimeRange.fromStartEnd(TIME_0900AM, TIME_1000AM, false),
+            Arrays.asList(PERSON_A)));
+
+    Assert.assertEquals(expected, result.getEvents());
+    Assert.assertEquals(0, result.getSkipped());
+  }
+
+  @Test
+  public void skipsMalformedCsvRows() throws IOException {
+    Path file = write("events.csv", "Event 1,08:00\n"
+        + "Event 2,25:00,26:00,Person A\n"
+        + "Event 3,08:00,24:00,Person A\n");
+
+    EventIngester.IngestResult result =
+        new EventIngester().ingest(file, EventIngester.Format.CSV);
+
+    List<Event> expected = Arrays.asList(new Event("Event 3",
+        TimeRange.fromStartEnd(TIME_0800AM, TimeRange.END_OF_DAY, true), Arrays.asList(PERSON_A)));
+
+    Assert.assertEquals(expected, result.getEvents());
+    Assert.assertEquals(2, result.getSkipped());
+  }
+
+  @Test
+  public void parsesIcsEvents() throws IOException {
+    Path file = write("events.ics", "BEGIN:VCALENDAR\r\n"
+        + "BEGIN:VEVENT\r\n"
+        + "SUMMARY:Event\r\n"
+        + "  1\r\n"
+        + "DTSTART;TZID=Europe/London:20200101T080000\r\n"
+        + "DTEND;TZID=Europe/London:20200101T083000\r\n"
+        + "ATTENDEE;CN=\"Person A\":mailto:a@example.com\r\n"
+        + "ATTENDEE:mailto:Person B\r\n"
+        + "END:VEVENT\r\n"
+        + "BEGIN:VEVENT\r\n"
+        + "SUMMARY:Event 2\r\n"
+        + "DTSTART:20200101T090000Z\r\n"
+        + "DURATION:PT1H\r\n"
+        + "END:VEVENT\r\n"
+        + "END:VCALENDAR\r\n");
+
+    EventIngester.IngestResult result =
+        new EventIngester().ingest(file, EventIngester.Format.ICS);
+
+    List<Event> expected = Arrays.asList(
+        new Event("Event 1", TimeRange.fromStartEnd(TIME_0800AM, TIME_0830AM, false),
+            Arrays.asList(PERSON_A, PERSON_B)),
+        new Event("Event 2", TimeRange.fromStartEnd(TIME_0900AM, TIME_1000AM, false),
+            Collections.emptySet()));
+
+    Assert.assertEquals(expected, result.getEvents());
+  }
+
+  @Test
+  public void chunkedCsvMatchesSingleChunk() throws IOException {
+    StringBuilder csv = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      csv.append("Event ").append(i).append(',').append(i % 1000).append(',')
+          .append(i % 1000 + 30).append(",Person ").append(i % 7).append('\n');
+    }
+    Path file = write("events.csv", csv.toString());
+
+    List<Event> expected =
+        new EventIngester(1, Long.MAX_VALUE).ingest(file, EventIngester.Format.CSV).getEvents();
+
+    // Chunk sizes that split rows at every possible position.
+    for (int chunkBytes = 1; chunkBytes < 40; chunkBytes += 3) {
+      EventIngester.IngestResult result =
+          new EventIngester(4, chunkBytes).ingest(file, EventIngester.Format.CSV);
+      Assert.assertEquals(expected, result.getEvents());
+    }
+    Assert.assertEquals(500, expected.size());
+  }
+
+  @Test
+  public void chunkedIcsMatchesSingleChunk() throws IOException {
+    StringBuilder ics = new StringBuilder("BEGIN:VCALENDAR\n");
+    for (int i = 0; i < 200; i++) {
+      ics.append("BEGIN:VEVENT\nSUMMARY:Event ").append(i)
+          .append("\nDTSTART:20200101T0").append(i % 10).append("0000")
+          .append("\nDURATION:PT30M\nATTENDEE;CN=Person ").append(i % 5)
+          .append(":mailto:p@example.com\nEND:VEVENT\n");
+    }
+    ics.append("END:VCALENDAR\n");
+    Path file = write("events.ics", ics.toString());
+
+    List<Event> expected =
+        new EventIngester(1, Long.MAX_VALUE).ingest(file, EventIngester.Format.ICS).getEvents();
+
+    for (int chunkBytes = 1; chunkBytes < 200; chunkBytes += 7) {
+      EventIngester.IngestResult result =
+          new EventIngester(4, chunkBytes).ingest(file, EventIngester.Format.ICS);
+      Assert.assertEquals(expected, result.getEvents());
+    }
+    Assert.assertEquals(200, expected.size());
+  }
+}
@@ -0,0 +1,216 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class EventPageTest {
+  private static final String PERSON_A = "Person A";
+  private static final String PERSON_B = "Person B";
+
+  private static final int TIME_0800AM = TimeRange.getTimeInMinutes(8, 0);
+  private static final int TIME_0900AM = TimeRange.getTimeInMinutes(9, 0);
+  private static final int TIME_1000AM = TimeRange.getTimeInMinutes(10, 0);
+  private static final int TIME_1100AM = TimeRange.getTimeInMinutes(11, 0);
+
+  private static final TimeRange WINDOW_0900AM_1000AM =
+      TimeRange.fromStartEnd(TIME_0900AM, TIME_1000AM, false);
+
+  private static Event event(String title, int start, int end, String... attendees) {
+    return new Event(title, TimeRange.fromStartEnd(start, end, false), Arrays.asList(attendees));
+  }
+
+  private static List<Event> sorted(List<Event> events) {
+    List<Event> sorted = new ArrayList<>(events);
+    sorted.sort(EventPage.PAGE_ORDER);
+    return sorted;
+  }
+
+  @Test
+  public void windowIncludesEventsReachingIntoIt() {
+    Event allMorning = event("All morning", TimeRange.START_OF_DAY, TIME_1100AM, PERSON_A);
+    Event before = event("Before", TIME_0800AM, TIME_0900AM, PERSON_A);
+    Event instant = event("Instant", TIME_0900AM, TIME_0900AM, PERSON_A);
+    Event inside = event("Inside", TIME_0900AM, TIME_1000AM, PERSON_A);
+    Event after = event("After", TIME_1000AM, TIME_1100AM, PERSON_A);
+    CalendarSnapshot snapshot =
+        CalendarSnapshot.of(Arrays.asList(allMorning, before, instant, inside, after));
+
+    EventPage page = snapshot.getEvents(PERSON_A, WINDOW_0900AM_1000AM, null, 10);
+
+    Assert.assertEquals(
+        sorted(Arrays.asList(allMorning, instant, inside)), page.getEvents());
+    Assert.assertNull(page.getNextCursor());
+  }
+
+  @Test
+  public void attendeeFilterOnlyListsTheirEvents() {
+    Event eventA = event("Event 1", TIME_0900AM, TIME_1000AM, PERSON_A);
+    Event eventB = event("Event 2", TIME_0900AM, TIME_1000AM, PERSON_B);
+    CalendarSnapshot snapshot = CalendarSnapshot.of(Arrays.asList(eventA, eventB));
+
+    Assert.assertEquals(Arrays.asList(eventB),
+        snapshot.getEvents(PERSON_B, TimeRange.WHOLE_DAY, null, 10).getEvents());
+    Assert.assertEquals(2,
+        snapshot.getEvents(null, TimeRange.WHOLE_DAY, null, 10).getEvents().size());
+  }
+
+  @Test
+  public void cursorResumesAmongEventsWithTheSameStart() {
+    List<Event> events = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      events.add(event("Event " + i, TIME_0900AM, TIME_1000AM, PERSON_A));
+    }
+    CalendarSnapshot snapshot = CalendarSnapshot.of(events);
+
+    EventPage first = snapshot.getEvents(PERSON_A, TimeRange.WHOLE_DAY, null, 2);
+    EventPage second =
+        snapshot.getEvents(PERSON_A, TimeRange.WHOLE_DAY, first.getNextCursor(), 2);
+    EventPage third =
+        snapshot.getEvents(PERSON_A, TimeRange.WHOLE_DAY, second.getNextCursor(), 2);
+
+    List<Event> paged = new ArrayList<>(first.getEvents());
+    paged.addAll(second.getEvents());
+    paged.addAll(third.getEvents());
+    Assert.assertEquals(sorted(snapshot.getCalendar(PERSON_A).getEvents()), paged);
+    Assert.assertNull(third.getNextCursor());
+  }
+
+  @Test
+  public void cursorKeepsItsPlaceWhenEventsChange() {
+    List<Event> events = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      events.add(event("Event " + i, TIME_0900AM, TIME_1000AM, PERSON_A));
+    }
+    events = sorted(events);
+    CalendarSnapshot before = CalendarSnapshot.of(events);
+    EventPage first = before.getEvents(PERSON_A, TimeRange.WHOLE_DAY, null, 3);
+
+    // Between pages, an event that was already listed is cancelled and two are booked at the same
+    // time, ordered before everything listed so far. None of it may shift the cursor.
+    List<Event> added = new ArrayList<>();
+    for (int i = 0; added.size() < 2; i++) {
+      Event candidate = event("New " + i, TIME_0900AM, TIME_1000AM, PERSON_A);
+      if (EventPage.PAGE_ORDER.compare(candidate, events.get(0)) < 0) {
+        added.add(candidate);
+      }
+    }
+    CalendarSnapshot after = before.with(added, Arrays.asList(first.getEvents().get(1)));
+    EventPage second = after.getEvents(PERSON_A, TimeRange.WHOLE_DAY, first.getNextCursor(), 10);
+
+    Assert.assertEquals(events.subList(3, 6), second.getEvents());
+    Assert.assertNull(second.getNextCursor());
+  }
+
+  @Test
+  public void identicalEventsArePagedOneByOne() {
+    Event event = event("Event 1", TIME_0900AM, TIME_1000AM, PERSON_A);
+    CalendarSnapshot snapshot = CalendarSnapshot.of(Arrays.asList(event, event, event));
+
+    EventPage first = snapshot.getEvents(PERSON_A, TimeRange.WHOLE_DAY, null, 2);
+    EventPage second =
+        snapshot.getEvents(PERSON_A, TimeRange.WHOLE_DAY, first.getNextCursor(), 2);
+
+    Assert.assertEquals(Arrays.asList(event, event), first.getEvents());
+    Assert.assertEquals(Arrays.asList(event), second.getEvents());
+    Assert.assertNull(second.getNextCursor());
+  }
+
+  @Test
+  public void longEventDoesNotHideOthersInWindow() {
+    Event allDay = event("All day", TimeRange.START_OF_DAY, TimeRange.WHOLE_DAY.end(), PERSON_A);
+    Event before = event("Before", TIME_0800AM, TIME_0900AM, PERSON_A);
+    Event inside = event("Inside", TIME_0900AM, TIME_1000AM, PERSON_A);
+    Event after = event("After", TIME_1000AM, TIME_1100AM, PERSON_A);
+    CalendarSnapshot snapshot = CalendarSnapshot.of(Arrays.asList(allDay, before, inside, after));
+
+    EventPage first = snapshot.getEvents(PERSON_A, WINDOW_0900AM_1000AM, null, 1);
+    EventPage second = snapshot.getEvents(PERSON_A, WINDOW_0900AM_1000AM, first.getNextCursor(), 1);
+
+    Assert.assertEquals(Arrays.asList(allDay), first.getEvents());
+    Assert.assertEquals(Arrays.asList(inside), second.getEvents());
+    Assert.assertNull(second.getNextCursor());
+  }
+
+  @Test
+  public void wholeCalendarListingFollowsEdits() {
+    Event eventA = event("Event 1", TIME_0800AM, TIME_0900AM, PERSON_A);
+    Event eventB = event("Event 2", TIME_1000AM, TIME_1100AM, PERSON_B);
+    Event eventC = event("Event 3", TIME_0900AM, TIME_1000AM, PERSON_A, PERSON_B);
+    CalendarSnapshot before = CalendarSnapshot.of(Arrays.asList(eventA, eventB));
+    Assert.assertEquals(Arrays.asList(eventA, eventB),
+        before.getEvents(null, TimeRange.WHOLE_DAY, null, 10).getEvents());
+
+    CalendarSnapshot after = before.with(Arrays.asList(eventC), Arrays.asList(eventA));
+
+    Assert.assertEquals(Arrays.asList(eventC, eventB),
+        after.getEvents(null, TimeRange.WHOLE_DAY, null, 10).getEvents());
+    Assert.assertEquals(Arrays.asList(eventA, eventB), before.getEvents());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void malformedCursorIsRejected() {
+    CalendarSnapshot.EMPTY.getEvents(null, TimeRange.WHOLE_DAY, "not a cursor", 10);
+  }
+
+  @Test
+  public void pagesMatchLinearFilter() {
+    Random random = new Random(33);
+    List<Event> events = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      int start = random.nextInt(TimeRange.WHOLE_DAY.end());
+      int end = Math.min(TimeRange.WHOLE_DAY.end(), start + random.nextInt(240));
+      events.add(event("Event " + i, start, end, "Person " + random.nextInt(4)));
+    }
+    CalendarSnapshot snapshot = CalendarSnapshot.of(events);
+
+    for (int i = 0; i < 200; i++) {
+      int start = random.nextInt(TimeRange.WHOLE_DAY.end());
+      int end = start + random.nextInt(TimeRange.WHOLE_DAY.end() - start + 1);
+      TimeRange window = TimeRange.fromStartEnd(start, end, false);
+      String attendee = random.nextBoolean() ? null : "Person " + random.nextInt(4);
+      int limit = 1 + random.nextInt(20);
+
+      List<Event> expected = new ArrayList<>();
+      List<Event> all =
+          attendee == null ? snapshot.getEvents() : snapshot.getCalendar(attendee).getEvents();
+      for (Event event : all) {
+        if (EventPage.inWindow(event, window)) {
+          expected.add(event);
+        }
+      }
+      expected = sorted(expected);
+
+      List<Event> paged = new ArrayList<>();
+      String cursor = null;
+      do {
+        EventPage page = snapshot.getEvents(attendee, window, cursor, limit);
+        Assert.assertTrue(page.getEvents().size() <= limit);
+        paged.addAll(page.getEvents());
+        cursor = page.getNextCursor();
+      } while (cursor != null);
+
+      Assert.assertEquals("window " + window, expected, paged);
+    }
+  }
+}
@@ -0,0 +1,206 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Runs seeded random calendars and requests through the reference {@code query()} and every
+ * alternative engine, first thousands of small cases and then a few large ones with dense
+ * overlap. To reproduce a failure, rerun the reported seed with {@link #runCase} or
+ * {@link #runLargeCase}. How per-query time grows with the size of the calendar is checked by
+ * {@link FindMeetingQueryScalingTest}.
+ */
+@RunWith(JUnit4.class)
+public final class FindMeetingQueryDifferentialTest {
+  private static final long BASE_SEED = 31;
+  private static final int CASES = 2000;
+  // Large cases have thousands of short events among a few dozen people, so most events overlap
+  // several others and every attendee's busy blocks have to be merged.
+  private static final int LARGE_CASES = 40;
+
+  /** Something that answers meeting requests. */
+  interface Engine {
+    Collection<TimeRange> query(Collection<Event> events, MeetingRequest request);
+  }
+
+  static final Engine REFERENCE =
+      (events, request) -> new FindMeetingQuery().query(events, request);
+
+  static final Engine SNAPSHOT =
+      (events, request) -> new FindMeetingQuery().query(CalendarSnapshot.of(events), request);
+
+  /**
+   * Puts the required attendees into a group and invites the group instead of them, and does the
+   * same for the optional attendees.
+   */
+  private static final Engine GROUPS = (events, request) -> {
+    GroupDirectory groups = new GroupDirectory();
+    List<String> required = new ArrayList<>();
+    if (!request.getAttendees().isEmpty()) {
+      groups.setMembers("group:required", request.getAttendees());
+      required.add("group:required");
+    }
+
+    MeetingRequest byGroup = new MeetingRequest(required, request.getDuration());
+    if (!request.getOptionalAttendees().isEmpty()) {
+      groups.setMembers("group:optional", request.getOptionalAttendees());
+      byGroup.addOptionalAttendee("group:optional");
+    }
+    return new FindMeetingQuery().query(CalendarSnapshot.of(events), groups, byGroup);
+  };
+
+  /**
+   * Books the first half of the events, along with an all-day decoy for each event in the second
+   * half, then asks what-if questions with an overlay that cancels the decoys and books the second
+   * half. The answer should be the same as for the events booked directly.
+   */
+  private static final Engine OVERLAY = (events, request) -> {
+    List<Event> all = new ArrayList<>(events);
+    int half = all.size() / 2;
+    List<Event> booked = new ArrayList<>(all.subList(0, half));
+    List<Event> added = all.subList(half, all.size());
+    List<Event> decoys = new ArrayList<>();
+    for (Event event : added) {
+      decoys.add(new Event("Decoy " + event.getTitle(), TimeRange.WHOLE_DAY, event.getAttendees()));
+    }
+    booked.addAll(decoys);
+
+    CalendarOverlay overlay = new CalendarOverlay(added, decoys);
+    return new FindMeetingQuery().query(
+        CalendarSnapshot.of(booked), new GroupDirectory(), request, overlay);
+  };
+
+  /** A random calendar together with a request against it. */
+  static final class Case {
+    final List<Event> events = new ArrayList<>();
+    MeetingRequest request;
+
+    @Override
+    public String toString() {
+      StringBuilder out = new StringBuilder();
+      out.append("required=").append(request.getAttendees())
+          .append(" optional=").append(request.getOptionalAttendees())
+          .append(" duration=").append(request.getDuration()).append('\n');
+      for (Event event : events) {
+        out.append("  ").append(event.getWhen()).append(' ').append(event.getAttendees())
+            .append('\n');
+      }
+      return out.toString();
+    }
+  }
+
+  /**
+   * Generates a calendar of {@code eventCount} events among {@code people} attendees.
+   */
+  static Case generate(Random random, int people, int eventCount, int maxAttendees) {
+    return generate(random, people, eventCount, maxAttendees, 180);
+  }
+
+  /**
+   * Generates a calendar of {@code eventCount} events among {@code people} attendees, each
+   * shorter than {@code maxDuration} minutes.
+   */
+  static Case generate(
+      Random random, int people, int eventCount, int maxAttendees, int maxDuration) {
+    Case generated = new Case();
+    for (int i = 0; i < eventCount; i++) {
+      int start = random.nextInt(TimeRange.WHOLE_DAY.duration());
+      // Events may run to 23:59 or to midnight, so both ends of the day are covered.
+      int end = Math.min(TimeRange.WHOLE_DAY.end(), start + random.nextInt(maxDuration));
+      List<String> attendees = new ArrayList<>();
+      for (int j = random.nextInt(maxAttendees) + 1; j > 0; j--) {
+        attendees.add("Person " + random.nextInt(people));
+      }
+      generated.events.add(
+          new Event("Event " + i, TimeRange.fromStartEnd(start, end, false), attendees));
+    }
+
+    List<String> required = new ArrayList<>();
+    for (int j = random.nextInt(4); j > 0; j--) {
+      required.add("Person " + random.nextInt(people));
+    }
+    generated.request = new MeetingRequest(required, 1 + random.nextInt(240));
+    for (int j = random.nextInt(4); j > 0; j--) {
+      generated.request.addOptionalAttendee("Person " + random.nextInt(people));
+    }
+    return generated;
+  }
+
+  /**
+   * Runs one seeded case through {@code engine} and fails with the whole case if it disagrees
+   * with the reference.
+   */
+  private static void runCase(String name, Engine engine, long seed) {
+    Random random = new Random(seed);
+    check(name, engine, seed, generate(random, 2 + random.nextInt(8), random.nextInt(20), 3));
+  }
+
+  /**
+   * Like {@link #runCase}, but with a calendar of thousands of events.
+   */
+  private static void runLargeCase(String name, Engine engine, long seed) {
+    Random random = new Random(seed);
+    check(name, engine, seed,
+        generate(random, 10 + random.nextInt(40), 1000 + random.nextInt(4000), 4, 30));
+  }
+
+  private static void check(String name, Engine engine, long seed, Case generated) {
+    Collection<TimeRange> expected = REFERENCE.query(generated.events, generated.request);
+    Collection<TimeRange> actual = engine.query(generated.events, generated.request);
+
+    if (!new ArrayList<>(expected).equals(new ArrayList<>(actual))) {
+      Assert.fail(name + " diverged from the reference at seed " + seed + "\n"
+          + "expected: " + expected + "\nactual:   " + actual + "\n" + generated);
+    }
+  }
+
+  @Test
+  public void snapshotEngineMatchesReference() {
+    for (int i = 0; i < CASES; i++) {
+      runCase("snapshot", SNAPSHOT, BASE_SEED + i);
+    }
+    for (int i = 0; i < LARGE_CASES; i++) {
+      runLargeCase("snapshot", SNAPSHOT, BASE_SEED + i);
+    }
+  }
+
+  @Test
+  public void groupEngineMatchesReference() {
+    for (int i = 0; i < CASES; i++) {
+      runCase("groups", GROUPS, BASE_SEED + i);
+    }
+    for (int i = 0; i < LARGE_CASES; i++) {
+      runLargeCase("groups", GROUPS, BASE_SEED + i);
+    }
+  }
+
+  @Test
+  public void overlayEngineMatchesReference() {
+    for (int i = 0; i < CASES; i++) {
+      runCase("overlay", OVERLAY, BASE_SEED + i);
+    }
+    for (int i = 0; i < LARGE_CASES; i++) {
+      runLargeCase("overlay", OVERLAY, BASE_SEED + i);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how per-query time grows with the size of the calendar, for the reference
+ * {@code query()} and for queries against a snapshot. {@link FindMeetingQueryScalingTest} checks
+ * the growth against generous bounds on every build; this prints the actual numbers. Run it after
+ * {@code mvn test-compile} with
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes com.google.sps.FindMeetingQueryScalingBenchmark
+ * </pre>
+ *
+ * A snapshot query only reads the requested attendees, so its time should stay about flat as the
+ * calendar grows 10x per step. The reference scans every event, so it should grow about 10x per
+ * step, a few times more once the calendar no longer fits in cache; 100x would be quadratic.
+ */
+public final class FindMeetingQueryScalingBenchmark {
+  private static final long SEED = 31;
+  static final int[] SIZES = {1_000, 10_000, 100_000};
+
+  public static void main(String[] args) {
+    report("snapshot", FindMeetingQueryDifferentialTest.SNAPSHOT, new int[] {400, 400, 400});
+    report("reference", FindMeetingQueryDifferentialTest.REFERENCE, new int[] {200, 100, 20});
+  }
+
+  private static void report(String name, FindMeetingQueryDifferentialTest.Engine engine,
+      int[] queries) {
+    long previous = 0;
+    for (int i = 0; i < SIZES.length; i++) {
+      long median = medianQueryNanos(engine, SIZES[i], queries[i]);
+      if (previous == 0) {
+        System.out.printf("%s %d events: median %.3f ms%n", name, SIZES[i], median / 1e6);
+      } else {
+        System.out.printf("%s %d events: median %.3f ms (%.1fx)%n",
+            name, SIZES[i], median / 1e6, (double) median / previous);
+      }
+      previous = median;
+    }
+  }
+
+  /**
+   * Returns the median time in nanoseconds of answering random requests against a calendar of
+   * {@code eventCount} events. People have ten events each on average, as in a real organization.
+   */
+  static long medianQueryNanos(
+      FindMeetingQueryDifferentialTest.Engine engine, int eventCount, int queries) {
+    Random random = new Random(SEED + eventCount);
+    int people = eventCount / 10;
+    FindMeetingQueryDifferentialTest.Case calendar =
+        FindMeetingQueryDifferentialTest.generate(random, people, eventCount, 3);
+    CalendarSnapshot snapshot = CalendarSnapshot.of(calendar.events);
+    FindMeetingQueryDifferentialTest.Engine prepared =
+        engine == FindMeetingQueryDifferentialTest.SNAPSHOT
+            ? (events, request) -> new FindMeetingQuery().query(snapshot, request)
+            : engine;
+
+    List<MeetingRequest> requests = new ArrayList<>();
+    for (int i = 0; i < queries; i++) {
+      requests.add(FindMeetingQueryDifferentialTest.generate(random, people, 0, 1).request);
+    }
+
+    // Warm up so the JIT has compiled the engine before measuring.
+    for (MeetingRequest request : requests) {
+      prepared.query(calendar.events, request);
+    }
+
+    long[] nanos = new long[queries];
+    for (int i = 0; i < queries; i++) {
+      long start = System.nanoTime();
+      prepared.query(calendar.events, requests.get(i));
+      nanos[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(nanos);
+    return Math.max(1, nanos[queries / 2]);
+  }
+}
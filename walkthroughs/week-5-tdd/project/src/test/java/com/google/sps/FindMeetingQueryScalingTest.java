@@ -0,0 +1,69 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Checks how per-query time grows as the calendar grows from 1k to 100k events. Wall-clock time
+ * is noisy on a shared machine, so each size is measured several times after a warm-up, the
+ * median run is compared, and the bounds leave plenty of room: they only catch growth that is a
+ * whole order worse than expected. {@link FindMeetingQueryScalingBenchmark} prints the numbers.
+ */
+@RunWith(JUnit4.class)
+public final class FindMeetingQueryScalingTest {
+  private static final int RUNS = 3;
+  private static final long NOISE_NANOS = 20_000;
+
+  @Test
+  public void snapshotQueryTimeStaysFlat() {
+    // Flat would be 1x over the two steps; allow for cache misses and a slow machine.
+    assertGrowthBelow(FindMeetingQueryDifferentialTest.SNAPSHOT, new int[] {200, 200, 200}, 30);
+  }
+
+  @Test
+  public void referenceQueryTimeStaysBelowQuadratic() {
+    // Linear would be 100x over the two steps and quadratic 10,000x.
+    assertGrowthBelow(FindMeetingQueryDifferentialTest.REFERENCE, new int[] {100, 40, 10}, 1000);
+  }
+
+  private static void assertGrowthBelow(
+      FindMeetingQueryDifferentialTest.Engine engine, int[] queries, double maxRatio) {
+    int[] sizes = FindMeetingQueryScalingBenchmark.SIZES;
+    long smallest = medianOfRuns(engine, sizes[0], queries[0]);
+    long largest = medianOfRuns(engine, sizes[sizes.length - 1], queries[sizes.length - 1]);
+    // Times below the noise floor count as the floor, so timer jitter can't make up growth.
+    double ratio = (double) Math.max(largest, NOISE_NANOS) / Math.max(smallest, NOISE_NANOS);
+
+    Assert.assertTrue(String.format("%d events took %.3f ms per query, %d took %.3f ms (%.1fx)",
+        sizes[0], smallest / 1e6, sizes[sizes.length - 1], largest / 1e6, ratio),
+        ratio < maxRatio);
+  }
+
+  private static long medianOfRuns(
+      FindMeetingQueryDifferentialTest.Engine engine, int eventCount, int queries) {
+    long[] medians = new long[RUNS];
+    for (int run = 0; run < RUNS; run++) {
+      medians[run] =
+          FindMeetingQueryScalingBenchmark.medianQueryNanos(engine, eventCount, queries);
+    }
+    Arrays.sort(medians);
+    return medians[RUNS / 2];
+  }
+}
@@ -0,0 +1,164 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class FreeGapTreeTest {
+  private static final String PERSON_A = "Person A";
+  private static final String PERSON_B = "Person B";
+
+  private static final int TIME_0800AM = TimeRange.getTimeInMinutes(8, 0);
+  private static final int TIME_0830AM = TimeRange.getTimeInMinutes(8, 30);
+  private static final int TIME_0900AM = TimeRange.getTimeInMinutes(9, 0);
+  private static final int TIME_0930AM = TimeRange.getTimeInMinutes(9, 30);
+  private static final int TIME_1000AM = TimeRange.getTimeInMinutes(10, 0);
+  private static final int TIME_1100AM = TimeRange.getTimeInMinutes(11, 0);
+  private static final int TIME_1200PM = TimeRange.getTimeInMinutes(12, 0);
+  private static final int TIME_0400PM = TimeRange.getTimeInMinutes(16, 0);
+
+  private static final int DURATION_30_MINUTES = 30;
+  private static final int DURATION_1_HOUR = 60;
+  private static final int DURATION_4_HOUR = 240;
+
+  private static Event event(int start, int end, String... attendees) {
+    return new Event("Event", TimeRange.fromStartEnd(start, end, false), Arrays.asList(attendees));
+  }
+
+  private static FreeGapTree tree(Event... eventsByStart) {
+    return new FreeGapTree(Arrays.asList(eventsByStart));
+  }
+
+  @Test
+  public void emptyDayIsOneGap() {
+    FreeGapTree tree = tree();
+
+    Assert.assertEquals(TimeRange.WHOLE_DAY.duration(), tree.longestGap());
+    Assert.assertEquals(TimeRange.START_OF_DAY, tree.earliestSlot(0, DURATION_1_HOUR));
+  }
+
+  @Test
+  public void fullDayHasNoGap() {
+    FreeGapTree tree = tree(event(TimeRange.START_OF_DAY, TimeRange.WHOLE_DAY.end()));
+
+    Assert.assertEquals(0, tree.longestGap());
+    Assert.assertEquals(-1, tree.earliestSlot(0, 1));
+  }
+
+  @Test
+  public void overlappingEventsAreMerged() {
+    // Events  : |-----|
+    //               |-----|
+    //                 |-|
+    //                          |-----|
+    // Gaps    :             |--|
+    FreeGapTree tree = tree(event(TimeRange.START_OF_DAY, TIME_1000AM),
+        event(TIME_0800AM, TIME_1100AM), event(TIME_0900AM, TIME_0930AM),
+        event(TIME_1200PM, TimeRange.WHOLE_DAY.end()));
+
+    Assert.assertEquals(TIME_1200PM - TIME_1100AM, tree.longestGap());
+    Assert.assertEquals(TIME_1100AM, tree.earliestSlot(0, DURATION_1_HOUR));
+    Assert.assertEquals(-1, tree.earliestSlot(0, DURATION_1_HOUR + 1));
+  }
+
+  @Test
+  public void earliestSlotStartsInsideGap() {
+    FreeGapTree tree = tree(event(TIME_0800AM, TIME_0900AM), event(TIME_1000AM, TIME_1100AM));
+
+    // From 8:30 the first gap that fits an hour is 9:00 - 10:00.
+    Assert.assertEquals(TIME_0900AM, tree.earliestSlot(TIME_0830AM, DURATION_1_HOUR));
+    // From 9:15 only part of that gap is left, so the answer moves past the second event.
+    Assert.assertEquals(TIME_1100AM, tree.earliestSlot(TIME_0900AM + 15, DURATION_1_HOUR));
+    Assert.assertEquals(
+        TIME_0900AM + 15, tree.earliestSlot(TIME_0900AM + 15, DURATION_30_MINUTES));
+  }
+
+  @Test
+  public void zeroDurationEventSplitsGap() {
+    FreeGapTree tree = tree(event(TIME_1200PM, TIME_1200PM));
+
+    Assert.assertEquals(TimeRange.WHOLE_DAY.end() - TIME_1200PM, tree.longestGap());
+    Assert.assertEquals(TIME_1200PM, tree.earliestSlot(TIME_1100AM, DURATION_4_HOUR));
+  }
+
+  @Test
+  public void commonSlotLeapfrogsAcrossAttendees() {
+    // A : |--A--|     |--A--|
+    // B :       |--B--|     |--B--|
+    FreeGapTree a = tree(event(TimeRange.START_OF_DAY, TIME_0800AM),
+        event(TIME_0900AM, TIME_1000AM));
+    FreeGapTree b = tree(event(TIME_0800AM, TIME_0900AM), event(TIME_1000AM, TIME_1100AM));
+
+    Assert.assertEquals(TIME_1100AM,
+        FreeGapTree.earliestCommonSlot(Arrays.asList(a, b), DURATION_1_HOUR));
+    Assert.assertEquals(-1, FreeGapTree.earliestCommonSlot(
+        Arrays.asList(a, b, tree(event(TIME_1100AM, TimeRange.WHOLE_DAY.end()))), 1));
+  }
+
+  @Test
+  public void manyGapsMatchLinearScan() {
+    List<Event> events = new ArrayList<>();
+    for (int start = 0; start + 7 < TimeRange.WHOLE_DAY.end(); start += 7 + start % 13) {
+      events.add(event(start, start + 7));
+    }
+    FreeGapTree tree = new FreeGapTree(events);
+
+    for (int duration = 1; duration < 20; duration++) {
+      for (int from = 0; from < TimeRange.WHOLE_DAY.end(); from += 11) {
+        Assert.assertEquals(linearEarliestSlot(events, from, duration),
+            tree.earliestSlot(from, duration));
+      }
+    }
+  }
+
+  @Test
+  public void snapshotQueryRejectsImpossibleRequest() {
+    Collection<Event> events = Arrays.asList(
+        event(TimeRange.START_OF_DAY, TIME_0400PM, PERSON_A), event(TIME_0800AM, TIME_1100AM));
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A, PERSON_B), 9 * 60);
+
+    FindMeetingQuery query = new FindMeetingQuery();
+
+    Assert.assertEquals(Collections.emptyList(), query.query(CalendarSnapshot.of(events), request));
+    Assert.assertEquals(query.query(events, request),
+        query.query(CalendarSnapshot.of(events), request));
+  }
+
+  private static int linearEarliestSlot(List<Event> events, int from, int duration) {
+    boolean[] busy = new boolean[TimeRange.WHOLE_DAY.end()];
+    for (Event event : events) {
+      for (int minute = event.getWhen().start(); minute < event.getWhen().end(); minute++) {
+        busy[minute] = true;
+      }
+    }
+    int run = 0;
+    for (int minute = from; minute < busy.length; minute++) {
+      run = busy[minute] ? 0 : run + 1;
+      if (run >= duration) {
+        return minute - duration + 1;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,147 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class GroupDirectoryTest {
+  private static final String PERSON_A = "Person A";
+  private static final String PERSON_B = "Person B";
+  private static final String PERSON_C = "Person C";
+  private static final String PERSON_D = "Person D";
+
+  private static final String GROUP_TEAM = "group:team";
+  private static final String GROUP_ORG = "group:org";
+
+  private static final int TIME_0800AM = TimeRange.getTimeInMinutes(8, 0);
+  private static final int TIME_0830AM = TimeRange.getTimeInMinutes(8, 30);
+  private static final int TIME_0900AM = TimeRange.getTimeInMinutes(9, 0);
+  private static final int TIME_1000AM = TimeRange.getTimeInMinutes(10, 0);
+
+  private static final int DURATION_30_MINUTES = 30;
+  private static final int DURATION_60_MINUTES = 60;
+
+  private static final Collection<Event> EVENTS = Arrays.asList(
+      new Event("Event 1", TimeRange.fromStartDuration(TIME_0800AM, DURATION_60_MINUTES),
+          Arrays.asList(PERSON_A)),
+      new Event("Event 2", TimeRange.fromStartDuration(TIME_0830AM, DURATION_60_MINUTES),
+          Arrays.asList(PERSON_B)),
+      new Event("Event 3", TimeRange.fromStartDuration(TIME_1000AM, DURATION_30_MINUTES),
+          Arrays.asList(PERSON_C)),
+      new Event("Event 4", TimeRange.fromStartDuration(TIME_0900AM, DURATION_30_MINUTES),
+          Arrays.asList(PERSON_D)));
+
+  private GroupDirectory groups;
+
+  @Before
+  public void setUp() {
+    groups = new GroupDirectory();
+    groups.setMembers(GROUP_TEAM, Arrays.asList(PERSON_A, PERSON_B));
+    groups.setMembers(GROUP_ORG, Arrays.asList(GROUP_TEAM, PERSON_C, GROUP_ORG));
+  }
+
+  @Test
+  public void expandsNestedGroupsAndIgnoresCycles() {
+    Assert.assertEquals(Arrays.asList(PERSON_C, PERSON_A, PERSON_B), groups.expand(GROUP_ORG));
+  }
+
+  @Test
+  public void membershipChangeInvalidatesContainingGroups() {
+    groups.expand(GROUP_ORG);
+
+    groups.setMembers(GROUP_TEAM, Arrays.asList(PERSON_D));
+
+    Assert.assertEquals(Arrays.asList(PERSON_C, PERSON_D), groups.expand(GROUP_ORG));
+
+    groups.removeGroup(GROUP_TEAM);
+
+    Assert.assertEquals(Arrays.asList(PERSON_C), groups.expand(GROUP_ORG));
+  }
+
+  @Test
+  public void rejectsNamesWithoutPrefix() {
+    try {
+      groups.setMembers(PERSON_A, Collections.emptySet());
+      Assert.fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void mergesBusyTimeOfMembers() {
+    CalendarSnapshot snapshot = CalendarSnapshot.of(EVENTS);
+
+    GroupDirectory.GroupBusyTime busyTime = groups.getBusyTime(GROUP_TEAM, snapshot);
+
+    Assert.assertEquals(1, busyTime.getEvents().size());
+    Assert.assertEquals(TimeRange.fromStartEnd(TIME_0800AM, TIME_0830AM + DURATION_60_MINUTES,
+        false), busyTime.getEvents().get(0).getWhen());
+  }
+
+  @Test
+  public void busyTimeIsReusedUntilMemberCalendarChanges() {
+    CalendarSnapshot snapshot = CalendarSnapshot.of(EVENTS);
+    GroupDirectory.GroupBusyTime busyTime = groups.getBusyTime(GROUP_TEAM, snapshot);
+
+    // Person D isn't on the team, so the merged busy time can be reused.
+    CalendarSnapshot unrelated = snapshot.with(Arrays.asList(new Event("Event 5",
+        TimeRange.fromStartDuration(TIME_1000AM, DURATION_30_MINUTES), Arrays.asList(PERSON_D))),
+        Collections.emptySet());
+    Assert.assertSame(busyTime, groups.getBusyTime(GROUP_TEAM, unrelated));
+
+    CalendarSnapshot related = snapshot.with(Arrays.asList(new Event("Event 5",
+        TimeRange.fromStartDuration(TIME_1000AM, DURATION_30_MINUTES), Arrays.asList(PERSON_A))),
+        Collections.emptySet());
+    Assert.assertNotSame(busyTime, groups.getBusyTime(GROUP_TEAM, related));
+    Assert.assertEquals(2, groups.getBusyTime(GROUP_TEAM, related).getEvents().size());
+  }
+
+  @Test
+  public void groupQueryMatchesQueryOfMembers() {
+    CalendarSnapshot snapshot = CalendarSnapshot.of(EVENTS);
+    FindMeetingQuery query = new FindMeetingQuery();
+
+    MeetingRequest byGroup = new MeetingRequest(Arrays.asList(GROUP_TEAM), DURATION_30_MINUTES);
+    byGroup.addOptionalAttendee(PERSON_D);
+    MeetingRequest byMembers =
+        new MeetingRequest(Arrays.asList(PERSON_A, PERSON_B), DURATION_30_MINUTES);
+    byMembers.addOptionalAttendee(PERSON_D);
+
+    Assert.assertEquals(query.query(EVENTS, byMembers), query.query(snapshot, groups, byGroup));
+  }
+
+  @Test
+  public void optionalGroupAddsEachMember() {
+    CalendarSnapshot snapshot = CalendarSnapshot.of(EVENTS);
+    FindMeetingQuery query = new FindMeetingQuery();
+
+    MeetingRequest byGroup = new MeetingRequest(Arrays.asList(PERSON_D), DURATION_30_MINUTES);
+    byGroup.addOptionalAttendee(GROUP_ORG);
+    MeetingRequest byMembers = new MeetingRequest(Arrays.asList(PERSON_D), DURATION_30_MINUTES);
+    for (String person : Arrays.asList(PERSON_A, PERSON_B, PERSON_C)) {
+      byMembers.addOptionalAttendee(person);
+    }
+
+    Assert.assertEquals(query.query(EVENTS, byMembers), query.query(snapshot, groups, byGroup));
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class HashTrieTest {
+  // "Aa" and "BB" have the same hash code.
+  private static final String COLLIDING_A = "Aa";
+  private static final String COLLIDING_B = "BB";
+
+  @Test
+  public void emptyMapHasNoKeys() {
+    HashTrie<Integer> map = HashTrie.empty();
+
+    Assert.assertEquals(0, map.size());
+    Assert.assertNull(map.get("Person A"));
+    Assert.assertTrue(map.keySet().isEmpty());
+  }
+
+  @Test
+  public void changesLeaveTheOriginalUnchanged() {
+    HashTrie<Integer> original = HashTrie.<Integer>empty().with("Person A", 1);
+
+    HashTrie<Integer> added = original.with("Person B", 2);
+    HashTrie<Integer> replaced = original.with("Person A", 3);
+    HashTrie<Integer> removed = original.without("Person A");
+
+    Assert.assertEquals(1, original.size());
+    Assert.assertEquals(Integer.valueOf(1), original.get("Person A"));
+    Assert.assertNull(original.get("Person B"));
+    Assert.assertEquals(2, added.size());
+    Assert.assertEquals(Integer.valueOf(2), added.get("Person B"));
+    Assert.assertEquals(1, replaced.size());
+    Assert.assertEquals(Integer.valueOf(3), replaced.get("Person A"));
+    Assert.assertEquals(0, removed.size());
+    Assert.assertNull(removed.get("Person A"));
+  }
+
+  @Test
+  public void removingAMissingKeyReturnsSameMap() {
+    HashTrie<Integer> map = HashTrie.<Integer>empty().with("Person A", 1);
+
+    Assert.assertSame(map, map.without("Person B"));
+  }
+
+  @Test
+  public void keysWithEqualHashesAreKeptApart() {
+    Assert.assertEquals(COLLIDING_A.hashCode(), COLLIDING_B.hashCode());
+
+    HashTrie<Integer> map = HashTrie.<Integer>empty().with(COLLIDING_A, 1).with(COLLIDING_B, 2);
+
+    Assert.assertEquals(2, map.size());
+    Assert.assertEquals(Integer.valueOf(1), map.get(COLLIDING_A));
+    Assert.assertEquals(Integer.valueOf(2), map.get(COLLIDING_B));
+
+    HashTrie<Integer> removed = map.without(COLLIDING_A);
+    Assert.assertNull(removed.get(COLLIDING_A));
+    Assert.assertEquals(Integer.valueOf(2), removed.get(COLLIDING_B));
+  }
+
+  @Test
+  public void matchesHashMapUnderRandomChanges() {
+    Random random = new Random(7);
+    Map<String, Integer> expected = new HashMap<>();
+    HashTrie<Integer> actual = HashTrie.empty();
+
+    for (int i = 0; i < 20000; i++) {
+      String key = "Person " + random.nextInt(2000);
+      if (random.nextInt(3) == 0) {
+        expected.remove(key);
+        actual = actual.without(key);
+      } else {
+        expected.put(key, i);
+        actual = actual.with(key, i);
+      }
+    }
+
+    Assert.assertEquals(expected.size(), actual.size());
+    Assert.assertEquals(expected.keySet(), actual.keySet());
+    for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+      Assert.assertEquals(entry.getValue(), actual.get(entry.getKey()));
+    }
+    Set<Integer> values = new HashSet<>();
+    for (Integer value : actual.values()) {
+      values.add(value);
+    }
+    Assert.assertEquals(new HashSet<>(expected.values()), values);
+  }
+}
@@ -0,0 +1,271 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TenantCalendarsTest {
+  private static final String PERSON_A = "Person A";
+
+  private static final String TENANT_1 = "tenant-1";
+  private static final String TENANT_2 = "tenant-2";
+
+  private static final long IDLE_NANOS = 1000;
+  private static final long BUDGET_BYTES = 10_000;
+  private static final long TOTAL_BUDGET_BYTES = 15_000;
+  private static final int MAX_TENANTS = 2;
+
+  private static final Event EVENT_A = new Event("Event 1",
+      TimeRange.fromStartDuration(TimeRange.getTimeInMinutes(9, 0), 30), Arrays.asList(PERSON_A));
+
+  private final AtomicLong now = new AtomicLong();
+  private final MemoryStorage storage = new MemoryStorage();
+
+  private TenantCalendars tenants() {
+    return new TenantCalendars(
+        storage, IDLE_NANOS, BUDGET_BYTES, TOTAL_BUDGET_BYTES, MAX_TENANTS, now::get);
+  }
+
+  /** Events as big as the budget allows, give or take one event. */
+  private static List<Event> eventsOfAbout(long bytes) {
+    List<Event> events = new ArrayList<>();
+    while (TenantCalendars.estimateBytes(events) + 200 <= bytes) {
+      events.add(EVENT_A);
+    }
+    return events;
+  }
+
+  @Test
+  public void tenantsAreIsolatedAndLoadedOnce() {
+    TenantCalendars tenants = tenants();
+
+    Assert.assertEquals(Arrays.asList(EVENT_A), tenants.get(TENANT_1).snapshot().getEvents());
+    Assert.assertEquals(Collections.emptyList(), tenants.get(TENANT_2).snapshot().getEvents());
+    Assert.assertSame(tenants.get(TENANT_1), tenants.get(TENANT_1));
+    Assert.assertEquals(2, storage.loads.get());
+
+    tenants.get(TENANT_2).setGroupMembers("group:team", Arrays.asList(PERSON_A));
+    Assert.assertEquals(Collections.emptySet(), tenants.get(TENANT_1).getGroups().getGroups());
+  }
+
+  @Test
+  public void idleTenantsAreEvictedAndReloaded() {
+    TenantCalendars tenants = tenants();
+    tenants.get(TENANT_1);
+    tenants.get(TENANT_2);
+
+    now.set(IDLE_NANOS / 2);
+    tenants.get(TENANT_2);
+    now.set(IDLE_NANOS + 1);
+    tenants.evictIdle();
+
+    Assert.assertEquals(Collections.singleton(TENANT_2), tenants.getResidentTenants());
+
+    Assert.assertEquals(Arrays.asList(EVENT_A), tenants.get(TENANT_1).snapshot().getEvents());
+    Assert.assertEquals(3, storage.loads.get());
+  }
+
+  @Test
+  public void changedTenantsAreEvictedAndReloadedAsTheyWere() {
+    TenantCalendars tenants = tenants();
+    tenants.get(TENANT_2).publish(Arrays.asList(EVENT_A));
+    tenants.get(TENANT_1).setGroupMembers("group:team", Arrays.asList(PERSON_A));
+    tenants.get(TENANT_1).setGroupMembers("group:gone", Arrays.asList(PERSON_A));
+    tenants.get(TENANT_1).removeGroup("group:gone");
+
+    now.set(10 * IDLE_NANOS);
+    tenants.evictIdle();
+
+    Assert.assertEquals(Collections.emptySet(), tenants.getResidentTenants());
+    Assert.assertEquals(0, tenants.getResidentBytes());
+
+    Assert.assertEquals(Arrays.asList(EVENT_A), tenants.get(TENANT_2).snapshot().getEvents());
+    Assert.assertEquals(Collections.singleton("group:team"),
+        tenants.get(TENANT_1).getGroups().getGroups());
+    Assert.assertEquals(Collections.singleton(PERSON_A),
+        tenants.get(TENANT_1).getGroups().getMembers("group:team"));
+    Assert.assertEquals(4, storage.loads.get());
+  }
+
+  @Test
+  public void newTenantsWaitForRoom() {
+    TenantCalendars tenants = tenants();
+    tenants.get(TENANT_1);
+    tenants.get(TENANT_2);
+
+    try {
+      tenants.get("tenant-3");
+      Assert.fail("Expected TenantLimitExceededException");
+    } catch (TenantCalendars.TenantLimitExceededException expected) {
+      // Both tenants are still active.
+    }
+
+    // Once the first tenant goes idle, it makes room for the new one.
+    now.set(IDLE_NANOS / 2);
+    tenants.get(TENANT_2);
+    now.set(IDLE_NANOS + 1);
+    tenants.get("tenant-3");
+    Assert.assertEquals(new HashSet<>(Arrays.asList(TENANT_2, "tenant-3")),
+        tenants.getResidentTenants());
+  }
+
+  @Test
+  public void groupsCountAgainstTheBudget() {
+    TenantCalendars tenants = tenants();
+    TenantCalendars.Tenant tenant = tenants.get(TENANT_1);
+
+    List<String> members = new ArrayList<>();
+    for (int i = 0; i < BUDGET_BYTES / 48; i++) {
+      members.add("Person " + i);
+    }
+
+    try {
+      tenant.setGroupMembers("group:everyone", members);
+      Assert.fail("Expected QuotaExceededException");
+    } catch (TenantCalendars.QuotaExceededException expected) {
+      // The groups are left as they were.
+    }
+    Assert.assertEquals(Collections.emptySet(), tenant.getGroups().getGroups());
+
+    tenant.setGroupMembers("group:team", Arrays.asList(PERSON_A));
+    Assert.assertEquals(
+        TenantCalendars.estimateBytes(Arrays.asList(EVENT_A))
+            + TenantCalendars.estimateBytes(tenant.getGroups()),
+        tenants.getMetrics().get(0).getEstimatedBytes());
+  }
+
+  @Test
+  public void tenantsShareTheTotalBudget() {
+    TenantCalendars tenants = tenants();
+    tenants.get(TENANT_1).publish(eventsOfAbout(BUDGET_BYTES * 4 / 5));
+    TenantCalendars.Tenant tenant2 = tenants.get(TENANT_2);
+    List<Event> events = eventsOfAbout(BUDGET_BYTES * 4 / 5);
+
+    try {
+      tenant2.publish(events);
+      Assert.fail("Expected TenantLimitExceededException");
+    } catch (TenantCalendars.TenantLimitExceededException expected) {
+      // Nothing was saved, and the calendar is left as it was.
+    }
+    Assert.assertEquals(Collections.emptyList(), tenant2.snapshot().getEvents());
+    Assert.assertNull(storage.events.get(TENANT_2));
+
+    // Once the first tenant goes idle, its memory goes to the second one.
+    now.set(IDLE_NANOS / 2);
+    tenants.get(TENANT_2);
+    now.set(IDLE_NANOS + 1);
+    tenant2.publish(events);
+
+    Assert.assertEquals(Collections.singleton(TENANT_2), tenants.getResidentTenants());
+    Assert.assertEquals(TenantCalendars.estimateBytes(events), tenants.getResidentBytes());
+  }
+
+  @Test
+  public void publishOverBudgetIsRejected() {
+    TenantCalendars tenants = tenants();
+    TenantCalendars.Tenant tenant = tenants.get(TENANT_1);
+
+    List<Event> events = new ArrayList<>();
+    while (TenantCalendars.estimateBytes(events) <= BUDGET_BYTES) {
+      events.add(EVENT_A);
+    }
+
+    try {
+      tenant.publish(events);
+      Assert.fail("Expected QuotaExceededException");
+    } catch (TenantCalendars.QuotaExceededException expected) {
+      // The calendar is left as it was.
+    }
+    Assert.assertEquals(Arrays.asList(EVENT_A), tenant.snapshot().getEvents());
+  }
+
+  @Test
+  public void metricsTrackQueriesPerTenant() {
+    TenantCalendars tenants = tenants();
+    tenants.get(TENANT_1).recordQuery(2_000_000);
+    tenants.get(TENANT_1).recordQuery(4_000_000);
+    tenants.get(TENANT_2);
+
+    for (TenantCalendars.TenantMetrics metrics : tenants.getMetrics()) {
+      if (TENANT_1.equals(metrics.getTenant())) {
+        Assert.assertEquals(2, metrics.getQueries());
+        Assert.assertEquals(3.0, metrics.getMeanQueryMillis(), 1e-9);
+        Assert.assertEquals(4.0, metrics.getMaxQueryMillis(), 1e-9);
+        Assert.assertEquals(1, metrics.getEvents());
+        Assert.assertEquals(TenantCalendars.estimateBytes(Arrays.asList(EVENT_A)),
+            metrics.getEstimatedBytes());
+      } else {
+        Assert.assertEquals(0, metrics.getQueries());
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidTenantNameIsRejected() {
+    tenants().get("../other");
+  }
+
+  /** Keeps tenants in memory, the way Datastore would keep them. */
+  private static final class MemoryStorage implements TenantCalendars.Storage {
+    private final Map<String, List<Event>> events = new HashMap<>();
+    private final Map<String, Map<String, List<String>>> groups = new HashMap<>();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Override
+    public Collection<Event> loadEvents(String tenant) {
+      loads.incrementAndGet();
+      if (events.containsKey(tenant)) {
+        return events.get(tenant);
+      }
+      return TENANT_1.equals(tenant)
+          ? Collections.singletonList(EVENT_A)
+          : Collections.<Event>emptyList();
+    }
+
+    @Override
+    public Map<String, List<String>> loadGroups(String tenant) {
+      return new HashMap<>(groups.getOrDefault(tenant, Collections.emptyMap()));
+    }
+
+    @Override
+    public void saveEvents(String tenant, Collection<Event> newEvents) {
+      events.put(tenant, new ArrayList<>(newEvents));
+    }
+
+    @Override
+    public void saveGroup(String tenant, String group, Collection<String> members) {
+      groups.computeIfAbsent(tenant, key -> new HashMap<>()).put(group, new ArrayList<>(members));
+    }
+
+    @Override
+    public void removeGroup(String tenant, String group) {
+      groups.computeIfAbsent(tenant, key -> new HashMap<>()).remove(group);
+    }
+  }
+}